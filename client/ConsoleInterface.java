@@ -83,6 +83,9 @@ public class ConsoleInterface
             System.out.println("Checksum FASTA: "+(patientData[9].isEmpty()?"No enviado":patientData[9]));
             System.out.println("Tamaño de Archivo: "+patientData[10]+" bytes");
             System.out.println("Enfermedades Detectadas: "+patientData[11]);
+            if (patientData.length>=13){
+                System.out.println("Versión: "+patientData[12]);
+            }
             System.out.println("-".repeat(30));
         } else if (patientData.length>=11){
             System.out.println("\n--- INFORMACIÓN DEL PACIENTE ---");
@@ -102,8 +105,17 @@ public class ConsoleInterface
     }
     
     public void displayDiseaseDetection(String diseaseId, String diseaseName, String severity, String similarity)
+    {
+        displayDiseaseDetection(diseaseId, diseaseName, severity, similarity, null);
+    }
+    
+    public void displayDiseaseDetection(String diseaseId, String diseaseName, String severity, String similarity, String record)
     {
         System.out.println("\n⚠️  ENFERMEDAD DETECTADA ⚠️");
+        if (record != null)
+        {
+            System.out.println("Registro: " + record);
+        }
         System.out.println("ID de Enfermedad: " + diseaseId);
         System.out.println("Nombre de Enfermedad: " + diseaseName);
         System.out.println("Nivel de Severidad: " + severity + "/10");
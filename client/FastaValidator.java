@@ -1,5 +1,7 @@
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 public class FastaValidator
@@ -30,17 +32,31 @@ public class FastaValidator
             return false;
         }
         
-        // Check sequence lines
+        // Check sequence lines; every '>' line starts a new record that needs its own sequence
+        Set<String> recordNames=new HashSet<>();
+        recordNames.add(lines[0].substring(1));
+        boolean recordHasSequence=false;
         for (int i=1;i<lines.length;i++)
         {
             String line=lines[i].trim().toUpperCase();
+            if (line.startsWith(">"))
+            {
+                String header=lines[i].stripLeading();
+                if (!recordHasSequence||!FASTA_HEADER_PATTERN.matcher(header).matches()||!recordNames.add(header.substring(1)))
+                {
+                    return false;
+                }
+                recordHasSequence=false;
+                continue;
+            }
             if (!line.isEmpty()&&!SEQUENCE_PATTERN.matcher(line).matches())
             {
                 return false;
             }
+            recordHasSequence|=!line.isEmpty();
         }
         
-        return true;
+        return recordHasSequence;
     }
     
     public static String extractSequence(String fastaContent)
@@ -292,7 +292,10 @@ public class GenomicClient
                 if (response.startsWith("DISEASE_DETECTED|")) {
                     String[] parts = response.split("\\|");
                     if (parts.length >= 5) {
-                        console.displayDiseaseDetection(parts[1], parts[2], parts[3], parts[4]);
+                        // The record name, when present, is always the last field
+                        int fieldsWithoutRecord = parts.length >= 8 && "EDIT".equals(parts[7]) ? 10 : 8;
+                        String record = parts.length > fieldsWithoutRecord ? parts[parts.length - 1] : null;
+                        console.displayDiseaseDetection(parts[1], parts[2], parts[3], parts[4], record);
                         detectionFound = true;
                     }
                 } else {
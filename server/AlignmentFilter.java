@@ -0,0 +1,62 @@
+/**
+ * Cota superior de las coincidencias de un alineamiento en banda: cualquier camino de
+ * la banda de una diagonal queda dentro de la ventana [diagonal - banda, diagonal +
+ * m + banda), así que no puede tener más bases coincidentes que la subsecuencia común
+ * más larga (LCS) entre el marcador y esa ventana. La LCS se calcula por vectores de
+ * bits (Allison-Dix, Hyyrö), con bloques de 64 bases y acarreo entre bloques como en
+ * {@link MyersMatcher}; tolera inserciones y deleciones sin perder ocurrencias.
+ */
+final class AlignmentFilter {
+    private final int length;
+    private final int blocks;
+    private final long[][] peq;
+    private final long lastMask;
+
+    AlignmentFilter(PackedSequence marker) {
+        this.length = marker.length();
+        this.blocks = Math.max(1, (length + 63) >>> 6);
+        this.peq = new long[4][blocks];
+        for (int i = 0; i < length; i++) {
+            int code = marker.codeAt(i);
+            // Una base ambigua del marcador no coincide con nada, igual que en el alineamiento
+            if (code >= 0) {
+                peq[code][i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        this.lastMask = (length & 63) == 0 ? -1L : (1L << (length & 63)) - 1;
+    }
+
+    /** Longitud de la LCS entre el marcador y el paciente en [from, to), recortado a la secuencia. */
+    int commonBases(PackedSequence patient, int from, int to) {
+        long[] v = new long[blocks];
+        java.util.Arrays.fill(v, -1L);
+        int end = Math.min(to, patient.length());
+        for (int j = Math.max(0, from); j < end; j++) {
+            int code = patient.codeAt(j);
+            if (code < 0) {
+                continue;
+            }
+            long[] eq = peq[code];
+            long carry = 0;
+            for (int b = 0; b < blocks; b++) {
+                long x = v[b];
+                long u = x & eq[b];
+                long sum = x + u;
+                long next = (Long.compareUnsigned(sum, x) < 0 ? 1 : 0);
+                sum += carry;
+                if (carry != 0 && sum == 0) {
+                    next = 1;
+                }
+                v[b] = sum | (x & ~u);
+                carry = next;
+            }
+        }
+
+        int common = 0;
+        for (int b = 0; b < blocks; b++) {
+            long mask = b == blocks - 1 ? lastMask : -1L;
+            common += Long.bitCount(~v[b] & mask);
+        }
+        return common;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Smith-Waterman con huecos afines (Gotoh) restringido a una banda alrededor de una
+ * diagonal. Cada fila del marcador se calcula en dos pasadas: una pasada elemento a
+ * elemento sobre la banda (diagonal y hueco vertical, sin dependencias entre celdas)
+ * y un barrido corto para el hueco horizontal, como en el esquema "lazy F" de Farrar.
+ *
+ * Cada celda guarda puntuación e identidad juntas: valor = puntuación * escala +
+ * bases coincidentes. Así el máximo ordena por puntuación y, a igualdad, por número
+ * de coincidencias, y la identidad del mejor camino sale sin reconstruirlo.
+ */
+final class BandedAligner {
+    static final int MATCH = 2;
+    static final int MISMATCH = -3;
+    static final int GAP_OPEN = 5;
+    static final int GAP_EXTEND = 2;
+
+    private static final int NEG = Integer.MIN_VALUE / 4;
+    private static final int OUTSIDE = -9;
+
+    static final class Result {
+        final int start;
+        final int end;
+        final int score;
+        final int matches;
+
+        Result(int start, int end, int score, int matches) {
+            this.start = start;
+            this.end = end;
+            this.score = score;
+            this.matches = matches;
+        }
+    }
+
+    private BandedAligner() {
+    }
+
+    /**
+     * Alinea el marcador contra la ventana del paciente [diagonal - band,
+     * diagonal + m + band). Devuelve el mejor alineamiento local (inicio y fin en
+     * coordenadas del paciente, fin exclusivo) o null si no hay ninguno positivo.
+     */
+    static Result align(PackedSequence patient, int diagonal, PackedSequence marker, int band) {
+        int m = marker.length();
+        if (m == 0) {
+            return null;
+        }
+        int scale = Integer.highestOneBit(m) << 1;
+        if ((long) MATCH * m * scale >= Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Marcador demasiado largo para alineamiento: " + m);
+        }
+
+        int width = 2 * band + 1;
+        int windowStart = diagonal - band;
+        int windowLength = m + 2 * band;
+        int[] window = new int[windowLength];
+        for (int q = 0; q < windowLength; q++) {
+            int p = windowStart + q;
+            window[q] = p < 0 || p >= patient.length() ? OUTSIDE : patient.codeAt(p);
+        }
+
+        int matchValue = MATCH * scale + 1;
+        int mismatchValue = MISMATCH * scale;
+        int openValue = (GAP_OPEN + GAP_EXTEND) * scale;
+        int extendValue = GAP_EXTEND * scale;
+
+        // Fila i - 1; la posición width es relleno para el acceso a t + 1
+        int[] prevH = new int[width + 1];
+        int[] prevE = new int[width + 1];
+        int[] prevStart = new int[width + 1];
+        int[] prevStartE = new int[width + 1];
+        int[] curH = new int[width + 1];
+        int[] curE = new int[width + 1];
+        int[] curStart = new int[width + 1];
+        int[] curStartE = new int[width + 1];
+
+        for (int t = 0; t < width; t++) {
+            prevH[t] = 0;
+            prevE[t] = NEG;
+            prevStart[t] = windowStart + t;
+        }
+        prevH[width] = NEG;
+        prevE[width] = NEG;
+        curH[width] = NEG;
+        curE[width] = NEG;
+
+        int best = 0;
+        int bestStart = -1;
+        int bestEnd = -1;
+
+        for (int i = 0; i < m; i++) {
+            int markerCode = marker.codeAt(i);
+            int rowOffset = i;
+
+            // Pasada 1: diagonal y hueco vertical, independientes entre celdas
+            for (int t = 0; t < width; t++) {
+                int code = window[rowOffset + t];
+                int substitution = code >= 0 && code == markerCode ? matchValue : mismatchValue;
+                int fromDiagonal = prevH[t] + substitution;
+                int openE = prevH[t + 1] - openValue;
+                int extendE = prevE[t + 1] - extendValue;
+                int e = Math.max(NEG, Math.max(openE, extendE));
+                int startE = openE >= extendE ? prevStart[t + 1] : prevStartE[t + 1];
+
+                int h;
+                int start;
+                if (fromDiagonal >= e) {
+                    h = fromDiagonal;
+                    start = prevStart[t];
+                } else {
+                    h = e;
+                    start = startE;
+                }
+                if (h <= 0) {
+                    h = 0;
+                    start = windowStart + rowOffset + t + 1;
+                }
+                if (code == OUTSIDE) {
+                    h = NEG;
+                    e = NEG;
+                }
+
+                curH[t] = h;
+                curE[t] = e;
+                curStart[t] = start;
+                curStartE[t] = startE;
+            }
+
+            // Pasada 2: hueco horizontal, dependiente de la celda anterior de la fila
+            int f = NEG;
+            int startF = 0;
+            for (int t = 1; t < width; t++) {
+                int openF = curH[t - 1] - openValue;
+                int extendF = Math.max(NEG, f - extendValue);
+                if (openF >= extendF) {
+                    f = openF;
+                    startF = curStart[t - 1];
+                } else {
+                    f = extendF;
+                }
+                if (f > curH[t] && window[rowOffset + t] != OUTSIDE) {
+                    curH[t] = f;
+                    curStart[t] = startF;
+                }
+            }
+
+            for (int t = 0; t < width; t++) {
+                if (curH[t] > best) {
+                    best = curH[t];
+                    bestStart = curStart[t];
+                    bestEnd = windowStart + rowOffset + t + 1;
+                }
+            }
+
+            int[] swap = prevH; prevH = curH; curH = swap;
+            swap = prevE; prevE = curE; curE = swap;
+            swap = prevStart; prevStart = curStart; curStart = swap;
+            swap = prevStartE; prevStartE = curStartE; curStartE = swap;
+        }
+
+        if (best <= 0) {
+            return null;
+        }
+        return new Result(bestStart, bestEnd, best / scale, best % scale);
+    }
+}
@@ -0,0 +1,80 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Filtro de Bloom sobre claves de texto, con doble hash a partir de un FNV-1a de
+ * 64 bits. Con {@code bitsPerKey} = 10 y 7 funciones da cerca de un 1% de falsos
+ * positivos.
+ */
+public class BloomFilter {
+    private final long[] words;
+    private final int hashes;
+
+    public BloomFilter(long expectedKeys, int bitsPerKey) {
+        long bits = Math.max(64, expectedKeys * bitsPerKey);
+        this.words = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64)];
+        this.hashes = Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+    }
+
+    private BloomFilter(long[] words, int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) words.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = (long) words.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % bits;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int serializedSize() {
+        return 8 + words.length * 8;
+    }
+
+    public void writeTo(ByteBuffer out) {
+        out.putInt(hashes).putInt(words.length);
+        for (long word : words) {
+            out.putLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(ByteBuffer in) {
+        int hashes = in.getInt();
+        long[] words = new long[in.getInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.getLong();
+        }
+        return new BloomFilter(words, hashes);
+    }
+
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        // FNV mezcla mal los bits altos con claves cortas como "P000123"
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
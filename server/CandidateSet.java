@@ -0,0 +1,47 @@
+import java.util.*;
+
+/**
+ * Enfermedades que pasan el prefiltro de k-mers, con un orden de evaluación que pone
+ * primero las más probables: las que más superan el mínimo de k-mers compartidos.
+ */
+public class CandidateSet {
+    private final BitSet ordinals;
+    private final int[] order;
+
+    public CandidateSet(BitSet ordinals, int[] order) {
+        this.ordinals = ordinals;
+        this.order = order;
+    }
+
+    /** Ordena los ordinales por puntuación descendente; a igualdad, por ordinal. */
+    static CandidateSet ranked(BitSet ordinals, double[] likelihood) {
+        Integer[] boxed = new Integer[ordinals.cardinality()];
+        int i = 0;
+        for (int ordinal = ordinals.nextSetBit(0); ordinal >= 0; ordinal = ordinals.nextSetBit(ordinal + 1)) {
+            boxed[i++] = ordinal;
+        }
+        Arrays.sort(boxed, (a, b) -> {
+            int byLikelihood = Double.compare(likelihood[b], likelihood[a]);
+            return byLikelihood != 0 ? byLikelihood : Integer.compare(a, b);
+        });
+
+        int[] order = new int[boxed.length];
+        for (i = 0; i < boxed.length; i++) {
+            order[i] = boxed[i];
+        }
+        return new CandidateSet(ordinals, order);
+    }
+
+    /** Subconjunto que conserva el orden de evaluación. */
+    public CandidateSet subset(BitSet selected) {
+        BitSet subsetOrdinals = (BitSet) ordinals.clone();
+        subsetOrdinals.and(selected);
+        int[] subsetOrder = Arrays.stream(order).filter(selected::get).toArray();
+        return new CandidateSet(subsetOrdinals, subsetOrder);
+    }
+
+    public BitSet getOrdinals() { return ordinals; }
+    public int[] getOrder() { return order; }
+    public int size() { return order.length; }
+    public boolean isEmpty() { return order.length == 0; }
+}
@@ -0,0 +1,104 @@
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Versión inmutable del catálogo: enfermedades, índice de k-mers y buscador. Se
+ * publica entera con un intercambio atómico, así que un análisis que tomó una
+ * instantánea la usa hasta el final aunque entretanto se recargue el catálogo.
+ */
+public final class CatalogSnapshot {
+    // "kmer" (exacto, por defecto) o "sketch" (MinHash, para paneles muy grandes)
+    private static final String PREFILTER = System.getProperty("genomic.prefilter", "kmer");
+
+    private final long version;
+    private final Map<String, DiseaseDetector.Disease> diseases;
+    private final KmerIndex kmerIndex;
+    private final MarkerSearch markerSearch;
+    private final SketchIndex sketchIndex;
+    private final int contextBases;
+    private final String fingerprint;
+
+    public CatalogSnapshot(long version, List<DiseaseDetector.Disease> diseases, int kmerSize) {
+        Map<String, DiseaseDetector.Disease> byId = new LinkedHashMap<>();
+        for (DiseaseDetector.Disease disease : diseases) {
+            byId.put(disease.getDiseaseId(), disease);
+        }
+        this.version = version;
+        this.diseases = Collections.unmodifiableMap(byId);
+        this.kmerIndex = new KmerIndex(new ArrayList<>(byId.values()), kmerSize);
+        this.markerSearch = new MarkerSearch(kmerIndex);
+        this.sketchIndex = "sketch".equalsIgnoreCase(PREFILTER)
+            ? SketchIndex.fromSystemProperties(kmerIndex.getDiseases(), kmerSize) : null;
+
+        int context = 0;
+        for (DiseaseDetector.Disease disease : byId.values()) {
+            int slack = disease.getMode() == DetectionMode.ALIGN ? Math.max(0, disease.getModeParameter())
+                      : disease.getMode() == DetectionMode.EDIT ? disease.getAllowedErrors() : 0;
+            context = Math.max(context, disease.getSequence().length() + slack);
+        }
+        this.contextBases = context + kmerSize + 1;
+        this.fingerprint = fingerprint(byId.values(), kmerSize);
+    }
+
+    // Resumen del contenido: igual entre reinicios mientras no cambie el catálogo ni k
+    private static String fingerprint(Collection<DiseaseDetector.Disease> diseases, int kmerSize) {
+        MessageDigest md = sha256();
+        md.update((kmerSize + "|" + MarkerSearch.IDENTITY_THRESHOLD + "|" + PREFILTER + "|" + MarkerSearch.REVISION).getBytes(StandardCharsets.UTF_8));
+        for (DiseaseDetector.Disease disease : diseases) {
+            digest(md, disease);
+        }
+        return FastaValidator.toHex(md.digest()).substring(0, 16);
+    }
+
+    /** Resumen de una sola enfermedad; cambia si cambia su marcador o su modo de detección. */
+    static String diseaseFingerprint(DiseaseDetector.Disease disease) {
+        MessageDigest md = sha256();
+        digest(md, disease);
+        return FastaValidator.toHex(md.digest()).substring(0, 16);
+    }
+
+    private static void digest(MessageDigest md, DiseaseDetector.Disease disease) {
+        PackedSequence sequence = disease.getSequence();
+        String fields = "|" + disease.getDiseaseId() + "," + disease.getName() + "," + disease.getSeverity() +
+                        "," + disease.getMode() + "," + disease.getModeParameter() + "," + sequence.length();
+        md.update(fields.getBytes(StandardCharsets.UTF_8));
+        byte[] word = new byte[8];
+        for (int w = 0; w < PackedSequence.wordCount(sequence.length()); w++) {
+            md.update(toBytes(sequence.word(w), word));
+        }
+        for (int w = 0; sequence.hasAmbiguousBases() && w < PackedSequence.ambiguousWordCount(sequence.length()); w++) {
+            md.update(toBytes(sequence.ambiguousWord(w), word));
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Algoritmo SHA-256 no disponible", e);
+        }
+    }
+
+    private static byte[] toBytes(long value, byte[] bytes) {
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (value >>> (i * 8));
+        }
+        return bytes;
+    }
+
+    public long getVersion() { return version; }
+    public Map<String, DiseaseDetector.Disease> getDiseases() { return diseases; }
+    public KmerIndex getKmerIndex() { return kmerIndex; }
+    public MarkerSearch getMarkerSearch() { return markerSearch; }
+
+    /** Índice de bocetos si el prefiltro configurado es "sketch", o null. */
+    public SketchIndex getSketchIndex() { return sketchIndex; }
+
+    /** Bases alrededor de una ocurrencia que necesita cualquier modo para verificarla. */
+    public int getContextBases() { return contextBases; }
+
+    /** Versión de contenido del catálogo, estable entre reinicios. */
+    public String getFingerprint() { return fingerprint; }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Vigila el directorio del catálogo y pide una recarga cuando cambia el CSV, un
+ * FASTA o el catálogo compilado. Los cambios seguidos se agrupan: la recarga se
+ * lanza tras un periodo sin eventos, para no reconstruir el índice por cada archivo
+ * de una copia. Si cambió una fuente, el catálogo compilado queda más antiguo y la
+ * recarga lee las fuentes.
+ */
+public class CatalogWatcher implements Runnable {
+    private static final Logger logger = Logger.getLogger(CatalogWatcher.class.getName());
+    private static final long QUIET_MILLIS = Long.getLong("genomic.catalog.watch.quietMillis", 500);
+
+    private final Path directory;
+    private final Runnable onChange;
+    private final WatchService watchService;
+
+    public CatalogWatcher(Path directory, Runnable onChange) throws IOException {
+        this.directory = directory;
+        this.onChange = onChange;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                           StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "catalog-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Vigilando cambios del catálogo en " + directory);
+    }
+
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warning("Error cerrando vigilancia del catálogo: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+                // Se sigue acumulando hasta que el directorio queda en silencio
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= drain(key);
+                }
+                if (changed) {
+                    logger.info("Cambios detectados en " + directory + ", recargando catálogo");
+                    onChange.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Cierre normal del servidor
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+            String fileName = event.context().toString();
+            if (fileName.endsWith(".csv") || fileName.endsWith(".fasta") || fileName.endsWith(".bin")) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+}
@@ -1,9 +1,12 @@
 import javax.net.ssl.SSLSocket;
 import java.io.*;
+import java.util.*;
 import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
 
 public class ClientHandler implements Runnable {
     private static final Logger logger = Logger.getLogger(ClientHandler.class.getName());
+    private static final int MAX_SEARCH_LIMIT = 500;
     
     private SSLSocket clientSocket;
     private BufferedReader reader;
@@ -11,13 +14,15 @@ public class ClientHandler implements Runnable {
     private PatientManager patientManager;
     private DiseaseDetector diseaseDetector;
     private ServerLogger serverLogger;
+    private ReanalysisJob reanalysisJob;
     
     public ClientHandler(SSLSocket clientSocket, PatientManager patientManager, 
-                        DiseaseDetector diseaseDetector, ServerLogger serverLogger) {
+                        DiseaseDetector diseaseDetector, ServerLogger serverLogger, ReanalysisJob reanalysisJob) {
         this.clientSocket = clientSocket;
         this.patientManager = patientManager;
         this.diseaseDetector = diseaseDetector;
         this.serverLogger = serverLogger;
+        this.reanalysisJob = reanalysisJob;
     }
     
     @Override
@@ -71,6 +76,30 @@ public class ClientHandler implements Runnable {
             case "SUBMIT_FASTA":
                 handleSubmitFasta(parts);
                 break;
+            case "RELOAD_CATALOG":
+                handleReloadCatalog();
+                break;
+            case "CACHE_STATS":
+                handleCacheStats();
+                break;
+            case "DISEASE_STATS":
+                handleDiseaseStats();
+                break;
+            case "SEARCH_PATIENTS":
+                handleSearchPatients(parts);
+                break;
+            case "LIST_PATIENTS":
+                handleListPatients(parts);
+                break;
+            case "EXPORT_PATIENTS":
+                handleExportPatients(parts);
+                break;
+            case "REANALYZE_ALL":
+                handleReanalyzeAll();
+                break;
+            case "REANALYSIS_STATUS":
+                handleReanalysisStatus();
+                break;
             case "PING":
                 writer.println("PONG");
                 break;
@@ -96,12 +125,13 @@ public class ClientHandler implements Runnable {
         String sex = parts[5];
         String clinicalNotes = parts[6];
         
-        if (patientManager.existsByDocumentId(documentId)) {
-            writer.println("ERROR|Ya existe paciente con ese documento de identidad");
+        Patient patient;
+        try {
+            patient = patientManager.createPatient(fullName, documentId, contactEmail, age, sex, clinicalNotes);
+        } catch (IllegalArgumentException e) {
+            writer.println("ERROR|" + e.getMessage());
             return;
         }
-        
-        Patient patient = patientManager.createPatient(fullName, documentId, contactEmail, age, sex, clinicalNotes);
         writer.println("PATIENT_CREATED|" + patient.getPatientId());
         
         serverLogger.log("Paciente creado: " + patient.getPatientId() + " (" + fullName + ")");
@@ -139,32 +169,131 @@ public class ClientHandler implements Runnable {
         response.append(patient.getClinicalNotes()).append("|");
         response.append(patient.getChecksumFasta() != null ? patient.getChecksumFasta() : "").append("|");
         response.append(patient.getFileSizeBytes()).append("|");
-        response.append(diseaseInfo);
+        response.append(diseaseInfo).append("|");
+        response.append(patient.getVersion());
         
         writer.println(response.toString());
         serverLogger.log("Datos de paciente obtenidos: " + patientId);
     }
     
-    private String getDiseaseInfoForPatient(String patientId) {
-        try (BufferedReader reader = new BufferedReader(new FileReader("data/disease_reports.csv"))) {
-            String line = reader.readLine();
-            StringBuilder diseaseIds = new StringBuilder();
-            
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 2 && parts[0].trim().equals(patientId)) {
-                    if (diseaseIds.length() > 0) {
-                        diseaseIds.append(", ");
-                    }
-                    diseaseIds.append(parts[1].trim());
-                }
+    // SEARCH_PATIENTS|clave=valor|...  con name, email, sex, disease, minAge, maxAge, offset y limit
+    private void handleSearchPatients(String[] parts) {
+        Map<String, String> criteria = parseOptions(parts);
+        if (criteria == null) {
+            return;
+        }
+        
+        PatientQuery query;
+        int offset;
+        int limit;
+        try {
+            query = new PatientQuery(criteria.get("name"), criteria.get("email"), criteria.get("sex"), criteria.get("disease"),
+                                     Integer.parseInt(criteria.getOrDefault("minAge", String.valueOf(Integer.MIN_VALUE))),
+                                     Integer.parseInt(criteria.getOrDefault("maxAge", String.valueOf(Integer.MAX_VALUE))));
+            offset = Math.max(0, Integer.parseInt(criteria.getOrDefault("offset", "0")));
+            limit = Math.min(MAX_SEARCH_LIMIT, Math.max(1, Integer.parseInt(criteria.getOrDefault("limit", "20"))));
+        } catch (NumberFormatException e) {
+            writer.println("ERROR|Número inválido en búsqueda: " + e.getMessage());
+            return;
+        }
+        
+        List<Patient> page;
+        try {
+            // Uno de más para saber si hay otra página
+            page = patientManager.searchPatients(query, offset, limit + 1);
+        } catch (IllegalArgumentException e) {
+            writer.println("ERROR|" + e.getMessage());
+            return;
+        }
+        boolean more = page.size() > limit;
+        if (more) {
+            page = page.subList(0, limit);
+        }
+        
+        writer.println("SEARCH_RESULTS|" + page.size() + "|" + (more ? offset + limit : -1));
+        for (Patient patient : page) {
+            writer.println("PATIENT|" + patient.getPatientId() + "|" + patient.getFullName() + "|" + 
+                          patient.getDocumentId() + "|" + patient.getContactEmail() + "|" + patient.getAge() + "|" + 
+                          patient.getSex() + "|" + patient.getVersion());
+        }
+        serverLogger.log("Búsqueda de pacientes: " + page.size() + " resultados");
+    }
+    
+    // LIST_PATIENTS|clave=valor|...  con after (último ID de la página anterior), limit y deleted
+    private void handleListPatients(String[] parts) {
+        Map<String, String> options = parseOptions(parts);
+        if (options == null) {
+            return;
+        }
+        String after = options.get("after");
+        boolean includeDeleted = Boolean.parseBoolean(options.get("deleted"));
+        int limit;
+        try {
+            limit = Math.min(MAX_SEARCH_LIMIT, Math.max(1, Integer.parseInt(options.getOrDefault("limit", "100"))));
+        } catch (NumberFormatException e) {
+            writer.println("ERROR|Número inválido en listado: " + e.getMessage());
+            return;
+        }
+        
+        List<Patient> page;
+        try {
+            page = patientManager.listPatients(after == null || after.isEmpty() ? null : after, limit + 1, includeDeleted);
+        } catch (IllegalArgumentException e) {
+            writer.println("ERROR|" + e.getMessage());
+            return;
+        }
+        boolean more = page.size() > limit;
+        if (more) {
+            page = page.subList(0, limit);
+        }
+        
+        writer.println("PATIENT_LIST|" + page.size() + "|" + (more ? page.get(page.size() - 1).getPatientId() : -1));
+        for (Patient patient : page) {
+            writer.println("PATIENT|" + patient.getPatientId() + "|" + patient.getFullName() + "|" + 
+                          patient.getDocumentId() + "|" + patient.getContactEmail() + "|" + patient.getAge() + "|" + 
+                          patient.getSex() + "|" + patient.getVersion() + "|" + patient.isDeleted());
+        }
+        serverLogger.log("Listado de pacientes: " + page.size() + " desde " + (after != null ? after : "el inicio"));
+    }
+    
+    // EXPORT_PATIENTS[|deleted=true]  CSV con gzip, partido en líneas EXPORT_CHUNK en base64
+    private void handleExportPatients(String[] parts) throws IOException {
+        Map<String, String> options = parseOptions(parts);
+        if (options == null) {
+            return;
+        }
+        boolean includeDeleted = Boolean.parseBoolean(options.get("deleted"));
+        
+        writer.println("EXPORT_BEGIN|csv+gzip|base64");
+        ExportChunkStream chunks = new ExportChunkStream(writer);
+        long rows;
+        try (GZIPOutputStream gzip = new GZIPOutputStream(chunks, 64 << 10)) {
+            rows = patientManager.exportPatients(gzip, includeDeleted);
+        }
+        writer.println("EXPORT_END|" + rows + "|" + chunks.getChunks() + "|" + chunks.getBytesWritten());
+        serverLogger.log("Exportados " + rows + " pacientes (" + chunks.getBytesWritten() + " bytes comprimidos)");
+    }
+    
+    // Las partes clave=valor tras el comando; null si alguna no lo es, con el error ya enviado
+    private Map<String, String> parseOptions(String[] parts) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < parts.length; i++) {
+            int separator = parts[i].indexOf('=');
+            if (separator <= 0) {
+                writer.println("ERROR|Opción inválida: " + parts[i]);
+                return null;
             }
-            
-            return diseaseIds.length() > 0 ? diseaseIds.toString() : "No se detectaron enfermedades";
-        } catch (Exception e) {
-            logger.warning("Error leyendo reportes de enfermedades: " + e.getMessage());
-            return "Error leyendo datos de enfermedades";
+            options.put(parts[i].substring(0, separator), parts[i].substring(separator + 1));
+        }
+        return options;
+    }
+    
+    private String getDiseaseInfoForPatient(String patientId) {
+        StringJoiner diseaseIds = new StringJoiner(", ");
+        for (DiseaseReport report : diseaseDetector.getReportStore().getReports(patientId)) {
+            diseaseIds.add(report.getDiseaseId());
         }
+        return diseaseIds.length() > 0 ? diseaseIds.toString() : "No se detectaron enfermedades";
     }
     
     private void handleUpdatePatient(String[] parts) throws Exception {
@@ -174,21 +303,24 @@ public class ClientHandler implements Runnable {
         }
         
         String patientId = parts[1];
-        Patient patient = patientManager.getPatient(patientId);
+        String fullName = parts[2];
+        String contactEmail = parts[3];
+        int age = Integer.parseInt(parts[4]);
+        String sex = parts[5];
+        String clinicalNotes = parts[6];
+        // Octavo campo opcional: versión leída con GET_PATIENT, para no pisar cambios ajenos
+        long expectedVersion = parts.length > 7 && !parts[7].isEmpty() 
+            ? Long.parseLong(parts[7]) : PatientManager.ANY_VERSION;
         
-        if (patient == null || patient.isDeleted()) {
-            writer.println("ERROR|Paciente no encontrado o inactivo");
+        Patient patient;
+        try {
+            patient = patientManager.updatePatient(patientId, expectedVersion, 
+                current -> current.withDetails(fullName, contactEmail, age, sex, clinicalNotes));
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            writer.println("ERROR|" + e.getMessage());
             return;
         }
-        
-        patient.setFullName(parts[2]);
-        patient.setContactEmail(parts[3]);
-        patient.setAge(Integer.parseInt(parts[4]));
-        patient.setSex(parts[5]);
-        patient.setClinicalNotes(parts[6]);
-        
-        patientManager.updatePatient(patient);
-        writer.println("PATIENT_UPDATED|" + patientId);
+        writer.println("PATIENT_UPDATED|" + patientId + "|" + patient.getVersion());
         
         serverLogger.log("Paciente actualizado: " + patientId);
     }
@@ -228,39 +360,106 @@ public class ClientHandler implements Runnable {
         
         writer.println("READY_FOR_FASTA");
         
-        StringBuilder fastaContent = new StringBuilder();
-        String line;
-        int bytesRead = 0;
-        
-        while ((line = reader.readLine()) != null && !line.equals("END_FASTA")) {
-            fastaContent.append(line).append("\n");
-            bytesRead += line.getBytes().length + 1;
+        try (FastaUpload upload = new FastaUpload(patientId, diseaseDetector.startFastaAnalysis(patientId, checksum))) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals("END_FASTA")) {
+                upload.acceptLine(line);
+            }
+            
+            if (!upload.isValidFasta()) {
+                writer.println("ERROR|Formato FASTA inválido");
+                return;
+            }
+            
+            if (!upload.getChecksum().equals(checksum)) {
+                writer.println("ERROR|Checksum no coincide");
+                return;
+            }
+            
+            try {
+                patientManager.updatePatient(patientId, PatientManager.ANY_VERSION, 
+                                             current -> current.withFasta(checksum, fileSize));
+            } catch (IllegalArgumentException e) {
+                writer.println("ERROR|" + e.getMessage());
+                return;
+            }
+            
+            upload.commit();
+            
+            writer.println("FASTA_RECEIVED");
+            
+            diseaseDetector.reportMatches(patientId, upload.finishAnalysis(), writer, serverLogger);
         }
         
-        String fastaString = fastaContent.toString();
-        if (!FastaValidator.isValidFasta(fastaString)) {
-            writer.println("ERROR|Formato FASTA inválido");
-            return;
+        serverLogger.log("Archivo FASTA procesado para paciente: " + patientId);
+    }
+    
+    // La recarga no bloquea los análisis en curso; solo este cliente espera a que termine
+    private void handleReloadCatalog() {
+        try {
+            CatalogSnapshot snapshot = diseaseDetector.reloadCatalog().join();
+            writer.println("CATALOG_RELOADED|" + snapshot.getVersion() + "|" + snapshot.getDiseases().size());
+            serverLogger.log("Catálogo recargado a versión " + snapshot.getVersion());
+        } catch (java.util.concurrent.CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            writer.println("ERROR|No se pudo recargar el catálogo: " + cause.getMessage());
         }
-        
-        String calculatedChecksum = FastaValidator.calculateChecksum(fastaString);
-        if (!calculatedChecksum.equals(checksum)) {
-            writer.println("ERROR|Checksum no coincide");
-            return;
+    }
+    
+    private void handleCacheStats() {
+        DetectionCache cache = diseaseDetector.getDetectionCache();
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+        double hitRate = hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses);
+        writer.println("CACHE_STATS|" + hits + "|" + misses + "|" + cache.size() + "|" + 
+                      String.format("%.2f", hitRate) + "%");
+    }
+    
+    // Lee agregados ya calculados: el coste no depende del número de reportes
+    private void handleDiseaseStats() {
+        DiseaseStats stats = diseaseDetector.getStats();
+        Map<String, DiseaseDetector.Disease> catalog = diseaseDetector.getCatalog().getDiseases();
+        int activePatients = patientManager.getPatientCount();
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : stats.getPatientsByDisease().entrySet()) {
+            DiseaseDetector.Disease disease = catalog.get(entry.getKey());
+            double prevalence = activePatients == 0 ? 0.0 : 100.0 * entry.getValue() / activePatients;
+            lines.add("DISEASE|" + entry.getKey() + "|" + (disease != null ? disease.getName() : "") + "|" + 
+                     entry.getValue() + "|" + String.format("%.2f", prevalence) + "%");
         }
+        long[] histogram = stats.getSeverityHistogram();
+        for (int severity = 0; severity < histogram.length; severity++) {
+            if (histogram[severity] > 0) {
+                lines.add("SEVERITY|" + severity + "|" + histogram[severity]);
+            }
+        }
+        stats.getDailyCounts(java.time.LocalDate.now())
+             .forEach((day, count) -> lines.add("DAY|" + day + "|" + count));
         
-        patient.setChecksumFasta(checksum);
-        patient.setFileSizeBytes(fileSize);
-        patientManager.updatePatient(patient);
-        
-        FileManager.saveFastaFile(patientId, fastaString);
-        
-        writer.println("FASTA_RECEIVED");
-        
-        String sequence = FastaValidator.extractSequence(fastaString);
-        diseaseDetector.analyzeSequence(patientId, sequence, writer, serverLogger);
-        
-        serverLogger.log("Archivo FASTA procesado para paciente: " + patientId);
+        writer.println("DISEASE_STATS|" + stats.getTotal() + "|" + activePatients + "|" + lines.size());
+        for (String line : lines) {
+            writer.println(line);
+        }
+    }
+    
+    private void handleReanalyzeAll() throws Exception {
+        try {
+            int markers = reanalysisJob.start();
+            if (markers == 0) {
+                writer.println("REANALYSIS_UP_TO_DATE");
+            } else {
+                writer.println("REANALYSIS_STARTED|" + reanalysisJob.getFilesTotal() + "|" + markers);
+            }
+        } catch (IllegalStateException e) {
+            writer.println("ERROR|" + e.getMessage());
+        }
+    }
+    
+    private void handleReanalysisStatus() {
+        ReanalysisJob job = reanalysisJob;
+        writer.println("REANALYSIS_STATUS|" + job.getState() + "|" + job.getFilesDone() + "|" + job.getFilesTotal() + "|" + 
+                      job.getBytesDone() + "|" + job.getBytesTotal() + "|" + job.getBytesPerSecond() + "|" + 
+                      job.getEtaSeconds() + "|" + job.getDetections());
     }
     
     private void cleanup() {
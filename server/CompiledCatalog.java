@@ -0,0 +1,221 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Catálogo de enfermedades compilado en un único archivo binario (little endian):
+ * una cabecera, un índice de entradas de ancho fijo, los identificadores y nombres
+ * en UTF-8 y las secuencias empaquetadas a 2 bits, alineadas a 8 bytes. El servidor
+ * lo mapea con {@link FileChannel#map} y las secuencias se leen en su sitio.
+ *
+ * <pre>
+ * cabecera (64 bytes): magic, versión, enfermedades, tamaño de entrada,
+ *                      offset del índice, de los textos, de las secuencias, tamaño total
+ * entrada  (40 bytes): offset del texto, bytes del id, bytes del nombre, severidad,
+ *                      modo, parámetro declarado, bases, flags, offset de la secuencia
+ * </pre>
+ */
+public class CompiledCatalog {
+    private static final int MAGIC = 0x43424447; // "GDBC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int ENTRY_SIZE = 40;
+    private static final int FLAG_AMBIGUOUS = 1;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    public static void main(String[] args) throws Exception {
+        String catalogPath = args.length > 0 ? args[0] : "disease_db/catalog.csv";
+        String dbPath = args.length > 1 ? args[1] : "disease_db/";
+        String outputPath = args.length > 2 ? args[2] : "disease_db/catalog.bin";
+
+        List<DiseaseDetector.Disease> diseases = DiseaseDetector.readCatalog(new File(catalogPath),
+                                                                             dbPath.endsWith("/") ? dbPath : dbPath + "/");
+        compile(diseases, new File(outputPath));
+        System.out.println("Catálogo compilado: " + diseases.size() + " enfermedades en " + outputPath +
+                           " (" + new File(outputPath).length() + " bytes)");
+    }
+
+    /** Escribe el catálogo en un temporal y lo renombra, así nunca se mapea un archivo a medias. */
+    public static void compile(List<DiseaseDetector.Disease> diseases, File output) throws IOException {
+        int count = diseases.size();
+        byte[][] ids = new byte[count][];
+        byte[][] names = new byte[count][];
+        long stringsSize = 0;
+        for (int i = 0; i < count; i++) {
+            ids[i] = diseases.get(i).getDiseaseId().getBytes(StandardCharsets.UTF_8);
+            names[i] = diseases.get(i).getName().getBytes(StandardCharsets.UTF_8);
+            stringsSize += ids[i].length + names[i].length;
+        }
+
+        long indexOffset = HEADER_SIZE;
+        long stringsOffset = indexOffset + (long) count * ENTRY_SIZE;
+        long sequencesOffset = align8(stringsOffset + stringsSize);
+        long[] sequenceOffsets = new long[count];
+        long position = sequencesOffset;
+        for (int i = 0; i < count; i++) {
+            sequenceOffsets[i] = position;
+            position += 8L * sequenceWords(diseases.get(i).getSequence());
+        }
+        long totalSize = position;
+        if (totalSize > Integer.MAX_VALUE) {
+            throw new IOException("Catálogo compilado demasiado grande: " + totalSize + " bytes");
+        }
+
+        File temp = new File(output.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(ENTRY_SIZE);
+            buffer.putLong(indexOffset).putLong(stringsOffset).putLong(sequencesOffset).putLong(totalSize);
+            padTo(channel, buffer, HEADER_SIZE);
+
+            int stringOffset = 0;
+            for (int i = 0; i < count; i++) {
+                DiseaseDetector.Disease disease = diseases.get(i);
+                PackedSequence sequence = disease.getSequence();
+                ensureRoom(channel, buffer, ENTRY_SIZE);
+                buffer.putInt(stringOffset).putInt(ids[i].length).putInt(names[i].length);
+                buffer.putInt(disease.getSeverity()).putInt(disease.getMode().ordinal());
+                buffer.putInt(disease.getDeclaredModeParameter()).putInt(sequence.length());
+                buffer.putInt(sequence.hasAmbiguousBases() ? FLAG_AMBIGUOUS : 0).putLong(sequenceOffsets[i]);
+                stringOffset += ids[i].length + names[i].length;
+            }
+
+            for (int i = 0; i < count; i++) {
+                putBytes(channel, buffer, ids[i]);
+                putBytes(channel, buffer, names[i]);
+            }
+            padTo(channel, buffer, sequencesOffset);
+
+            for (DiseaseDetector.Disease disease : diseases) {
+                PackedSequence sequence = disease.getSequence();
+                for (int w = 0; w < PackedSequence.wordCount(sequence.length()); w++) {
+                    ensureRoom(channel, buffer, 8);
+                    buffer.putLong(sequence.word(w));
+                }
+                if (sequence.hasAmbiguousBases()) {
+                    for (int w = 0; w < PackedSequence.ambiguousWordCount(sequence.length()); w++) {
+                        ensureRoom(channel, buffer, 8);
+                        buffer.putLong(sequence.ambiguousWord(w));
+                    }
+                }
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+
+        Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Mapea el catálogo compilado. Solo se copian al heap los identificadores y
+     * nombres; las secuencias quedan respaldadas por el mapeo, que sigue siendo
+     * válido después de cerrar el canal.
+     */
+    public static List<DiseaseDetector.Disease> open(File file) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Tamaño de catálogo compilado inválido: " + size + " bytes");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Formato de catálogo compilado no reconocido: " + file.getPath());
+        }
+        int count = buffer.getInt(8);
+        int entrySize = buffer.getInt(12);
+        int indexOffset = (int) buffer.getLong(16);
+        int stringsOffset = (int) buffer.getLong(24);
+        if (entrySize != ENTRY_SIZE || buffer.getLong(40) != buffer.capacity()) {
+            throw new IOException("Catálogo compilado truncado o corrupto: " + file.getPath());
+        }
+
+        DetectionMode[] modes = DetectionMode.values();
+        List<DiseaseDetector.Disease> diseases = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int entry = indexOffset + i * ENTRY_SIZE;
+            int stringOffset = stringsOffset + buffer.getInt(entry);
+            int idLength = buffer.getInt(entry + 4);
+            int nameLength = buffer.getInt(entry + 8);
+            int severity = buffer.getInt(entry + 12);
+            DetectionMode mode = modes[buffer.getInt(entry + 16)];
+            int modeParameter = buffer.getInt(entry + 20);
+            int length = buffer.getInt(entry + 24);
+            boolean ambiguous = (buffer.getInt(entry + 28) & FLAG_AMBIGUOUS) != 0;
+            int sequenceOffset = (int) buffer.getLong(entry + 32);
+
+            String diseaseId = decode(buffer, stringOffset, idLength);
+            String name = decode(buffer, stringOffset + idLength, nameLength);
+            int words = PackedSequence.wordCount(length);
+            LongBuffer sequenceWords = longs(buffer, sequenceOffset, words);
+            LongBuffer ambiguousMask = ambiguous
+                ? longs(buffer, sequenceOffset + 8 * words, PackedSequence.ambiguousWordCount(length)) : null;
+
+            diseases.add(new DiseaseDetector.Disease(diseaseId, name, severity,
+                                                     PackedSequence.mapped(sequenceWords, ambiguousMask, length),
+                                                     mode, modeParameter));
+        }
+        return diseases;
+    }
+
+    private static int sequenceWords(PackedSequence sequence) {
+        int words = PackedSequence.wordCount(sequence.length());
+        return sequence.hasAmbiguousBases() ? words + PackedSequence.ambiguousWordCount(sequence.length()) : words;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        return StandardCharsets.UTF_8.decode(buffer.slice(offset, length)).toString();
+    }
+
+    // slice() vuelve a big endian, hay que fijar el orden antes de verlo como longs
+    private static LongBuffer longs(ByteBuffer buffer, int offset, int count) {
+        return buffer.slice(offset, count * 8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void putBytes(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        int done = 0;
+        while (done < bytes.length) {
+            ensureRoom(channel, buffer, 1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - done);
+            buffer.put(bytes, done, chunk);
+            done += chunk;
+        }
+    }
+
+    // Rellena con ceros hasta la posición absoluta indicada del archivo
+    private static void padTo(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (channel.position() + buffer.position() < offset) {
+            ensureRoom(channel, buffer, 1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
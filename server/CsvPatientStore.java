@@ -0,0 +1,326 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Pacientes en memoria persistidos como un snapshot CSV más un log de mutaciones
+ * ({@link PatientLog}). Cada escritura añade un registro al log; cuando el log
+ * supera {@code genomic.patients.compactBytes} se compacta en segundo plano en un
+ * nuevo {@code patients.csv}. Al abrir se carga el snapshot y se reproduce el log.
+ * Los pacientes se guardan en una {@link PatientTable}.
+ */
+public class CsvPatientStore implements PatientStore {
+    private static final Logger logger = Logger.getLogger(CsvPatientStore.class.getName());
+    private static final long COMPACT_BYTES = Long.getLong("genomic.patients.compactBytes", 4L << 20);
+    static final String CSV_HEADER = "patient_id,full_name,document_id,contact_email,registration_date,age,sex,clinical_notes,checksum_fasta,file_size_bytes,disease_id,deleted,version";
+
+    private final Path directory;
+    private final Path csvFile;
+    private final PatientTable patients;
+    private final PatientLog patientLog;
+    // Las escrituras comparten el candado desde el log hasta la tabla; rotar el log y
+    // tomar un snapshot lo piden en exclusiva, así ninguna queda a medias
+    private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactionExecutor;
+
+    public CsvPatientStore(Path directory) {
+        this(directory, new MapTable());
+    }
+
+    public CsvPatientStore(Path directory, PatientTable patients) {
+        this.directory = directory;
+        this.patients = patients;
+        this.csvFile = directory.resolve("patients.csv");
+        this.patientLog = new PatientLog(directory, "patients");
+        this.compactionExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "patient-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        if (Files.exists(csvFile)) {
+            try {
+                PatientCsvLoader.load(csvFile, chunk -> chunk.forEach(patients::put));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Carga de pacientes interrumpida");
+            }
+        }
+        // Cada fila lleva el estado completo, así que la última aparición de un paciente gana
+        patientLog.replay(csvLine -> {
+            Patient patient = PatientCsvLoader.parseLine(csvLine);
+            if (patient != null) {
+                patients.put(patient);
+            }
+        }, patients::remove);
+    }
+
+    @Override
+    public Patient get(String patientId) {
+        return patients.get(patientId);
+    }
+
+    @Override
+    public void put(Patient patient) throws IOException {
+        writeGate.readLock().lock();
+        try {
+            patientLog.append(patient.toCsvString());
+            patients.put(patient);
+        } finally {
+            writeGate.readLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public void delete(String patientId) throws IOException {
+        writeGate.readLock().lock();
+        try {
+            patientLog.appendDelete(patientId);
+            patients.remove(patientId);
+        } finally {
+            writeGate.readLock().unlock();
+        }
+        maybeCompact();
+    }
+
+    @Override
+    public void scan(String fromId, Predicate<Patient> visitor) {
+        patients.scan(fromId, visitor);
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        writeGate.writeLock().lock();
+        try {
+            return patients.snapshot();
+        } finally {
+            writeGate.writeLock().unlock();
+        }
+    }
+
+    private void maybeCompact() {
+        if (patientLog.size() >= COMPACT_BYTES && compacting.compareAndSet(false, true)) {
+            compactionExecutor.submit(this::compact);
+        }
+    }
+
+    /**
+     * Abre una generación nueva del log, escribe el snapshot y borra las
+     * generaciones que cubre. Las escrituras siguen entrando en la generación nueva;
+     * si el proceso cae a mitad, reproducir las generaciones viejas da el mismo estado.
+     */
+    void compact() {
+        try {
+            long sealed;
+            writeGate.writeLock().lock();
+            try {
+                sealed = patientLog.rotate();
+            } finally {
+                writeGate.writeLock().unlock();
+            }
+            savePatientsToCSV();
+            patientLog.deleteThrough(sealed);
+        } catch (Exception e) {
+            logger.severe("Error compactando log de pacientes: " + e.getMessage());
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    private void savePatientsToCSV() throws IOException {
+        Path temp = Paths.get(csvFile + ".tmp");
+        int[] saved = {0};
+        try (FileOutputStream output = new FileOutputStream(temp.toFile());
+             PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(output)))) {
+            writer.println(CSV_HEADER);
+
+            patients.scan(null, patient -> {
+                writer.println(patient.toCsvString());
+                saved[0]++;
+                return true;
+            });
+            writer.flush();
+            output.getFD().sync();
+        }
+        Files.move(temp, csvFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Guardados " + saved[0] + " pacientes en CSV");
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactionExecutor.shutdown();
+        try {
+            compactionExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        patientLog.close();
+    }
+
+    /**
+     * Tabla en el heap con versiones, como la tabla en memoria del almacén LSM: cada
+     * escritura añade el paciente, o una marca de borrado, con un número de secuencia
+     * y un snapshot solo guarda el último número, así que tomarlo no copia nada. Las
+     * versiones que ya no ve ningún snapshot abierto se quitan al escribir y al cerrar
+     * un snapshot; mientras tanto ocupan solo lo escrito durante la exportación.
+     */
+    static class MapTable implements PatientTable {
+        private static final Patient REMOVED = new Patient(null, null, null, null, null, 0, null, null, null, 0, null, true, 0);
+
+        private final ConcurrentSkipListMap<Version, Patient> versions = new ConcurrentSkipListMap<>();
+        private final AtomicLong lastSequence = new AtomicLong();
+        // Secuencia de cada snapshot abierto y cuántos la comparten
+        private final ConcurrentSkipListMap<Long, Integer> openSnapshots = new ConcurrentSkipListMap<>();
+        // Podar lo comparten las escrituras y los cierres de snapshot; abrir uno lo pide en
+        // exclusiva, para que nadie pode con un snapshot más antiguo que ya no lo es
+        private final ReentrantReadWriteLock pruneGate = new ReentrantReadWriteLock();
+
+        @Override
+        public Patient get(String patientId) {
+            return get(patientId, Long.MAX_VALUE);
+        }
+
+        private Patient get(String patientId, long sequence) {
+            Map.Entry<Version, Patient> entry = versions.ceilingEntry(new Version(patientId, sequence));
+            if (entry == null || !entry.getKey().patientId.equals(patientId) || entry.getValue() == REMOVED) {
+                return null;
+            }
+            return entry.getValue();
+        }
+
+        @Override
+        public void put(Patient patient) {
+            write(patient.getPatientId(), patient);
+        }
+
+        @Override
+        public void remove(String patientId) {
+            write(patientId, REMOVED);
+        }
+
+        private void write(String patientId, Patient value) {
+            versions.put(new Version(patientId, lastSequence.incrementAndGet()), value);
+            prune(patientId);
+        }
+
+        /**
+         * La versión más reciente que ve el snapshot más antiguo la ven también todos
+         * los demás; las anteriores sobran, y ella misma si es un borrado.
+         */
+        private void prune(String patientId) {
+            pruneGate.readLock().lock();
+            try {
+                Map.Entry<Long, Integer> oldest = openSnapshots.firstEntry();
+                long sequence = oldest == null ? Long.MAX_VALUE : oldest.getKey();
+                boolean first = true;
+                for (Map.Entry<Version, Patient> entry : versions.tailMap(new Version(patientId, sequence)).entrySet()) {
+                    if (!entry.getKey().patientId.equals(patientId)) {
+                        return;
+                    }
+                    if (!first || entry.getValue() == REMOVED) {
+                        versions.remove(entry.getKey(), entry.getValue());
+                    }
+                    first = false;
+                }
+            } finally {
+                pruneGate.readLock().unlock();
+            }
+        }
+
+        @Override
+        public void scan(String fromId, Predicate<Patient> visitor) {
+            scan(fromId, Long.MAX_VALUE, visitor);
+        }
+
+        // La primera versión visible de cada ID es la más reciente
+        private void scan(String fromId, long sequence, Predicate<Patient> visitor) {
+            String previous = null;
+            for (Map.Entry<Version, Patient> entry : (fromId == null ? versions
+                    : versions.tailMap(new Version(fromId, Long.MAX_VALUE))).entrySet()) {
+                Version version = entry.getKey();
+                if (version.sequence > sequence || version.patientId.equals(previous)) {
+                    continue;
+                }
+                previous = version.patientId;
+                if (entry.getValue() != REMOVED && !visitor.test(entry.getValue())) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public PatientStore.Snapshot snapshot() {
+            long sequence;
+            pruneGate.writeLock().lock();
+            try {
+                sequence = lastSequence.get();
+                openSnapshots.merge(sequence, 1, Integer::sum);
+            } finally {
+                pruneGate.writeLock().unlock();
+            }
+            AtomicBoolean closed = new AtomicBoolean();
+            return new PatientStore.Snapshot() {
+                @Override
+                public Patient get(String patientId) {
+                    return MapTable.this.get(patientId, sequence);
+                }
+
+                @Override
+                public void scan(String fromId, Predicate<Patient> visitor) {
+                    MapTable.this.scan(fromId, sequence, visitor);
+                }
+
+                @Override
+                public void close() {
+                    if (closed.compareAndSet(false, true)) {
+                        openSnapshots.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+                        sweep();
+                    }
+                }
+            };
+        }
+
+        // Quita las versiones que retenía el snapshot cerrado
+        private void sweep() {
+            String previous = null;
+            for (Map.Entry<Version, Patient> entry : versions.entrySet()) {
+                String patientId = entry.getKey().patientId;
+                if (patientId.equals(previous) || entry.getValue() == REMOVED) {
+                    prune(patientId);
+                }
+                previous = patientId;
+            }
+        }
+
+        private static class Version implements Comparable<Version> {
+            final String patientId;
+            final long sequence;
+
+            Version(String patientId, long sequence) {
+                this.patientId = patientId;
+                this.sequence = sequence;
+            }
+
+            @Override
+            public int compareTo(Version other) {
+                int byId = PatientStore.compareIds(patientId, other.patientId);
+                return byId != 0 ? byId : Long.compare(other.sequence, sequence);
+            }
+        }
+    }
+}
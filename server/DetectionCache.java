@@ -0,0 +1,268 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Resultados de detección por checksum SHA-256 del FASTA y huella del catálogo.
+ * LRU acotado por número de entradas; cada resultado guarda como mucho los
+ * desplazamientos que se informan. Opcionalmente se persiste en un archivo de solo
+ * anexado: un hilo propio escribe las entradas nuevas, fuera del candado del LRU, y
+ * reescribe el archivo con las entradas vivas cuando pasa del doble de su capacidad.
+ */
+public class DetectionCache {
+    private static final Logger logger = Logger.getLogger(DetectionCache.class.getName());
+
+    private final int maxEntries;
+    private final int maxOffsets;
+    private final Path file;
+    private final Map<String, List<RecordMatches>> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ExecutorService writer;
+    // Líneas del archivo; solo las toca el hilo de escritura
+    private int fileLines;
+
+    public DetectionCache(int maxEntries, int maxOffsets, Path file) {
+        this.maxEntries = maxEntries;
+        this.maxOffsets = maxOffsets;
+        this.file = file;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<RecordMatches>> eldest) {
+                return size() > DetectionCache.this.maxEntries;
+            }
+        };
+        this.writer = file == null ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "detection-cache-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static DetectionCache fromSystemProperties(int maxOffsets) {
+        int maxEntries = Integer.getInteger("genomic.cache.maxEntries", 1024);
+        boolean persist = Boolean.parseBoolean(System.getProperty("genomic.cache.persist", "false"));
+        Path file = persist ? Paths.get(System.getProperty("genomic.cache.file", "data/detection_cache.dat")) : null;
+        return new DetectionCache(maxEntries, maxOffsets, file);
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    public List<RecordMatches> get(String checksum, CatalogSnapshot snapshot) {
+        List<RecordMatches> matches;
+        synchronized (entries) {
+            matches = entries.get(key(checksum, snapshot));
+        }
+        if (matches != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return matches;
+    }
+
+    public void put(String checksum, CatalogSnapshot snapshot, List<RecordMatches> records) {
+        if (!isEnabled()) {
+            return;
+        }
+        List<RecordMatches> compact = new ArrayList<>(records.size());
+        for (RecordMatches record : records) {
+            List<MarkerMatch> matches = new ArrayList<>(record.getMatches().size());
+            for (MarkerMatch match : record.getMatches()) {
+                matches.add(match.truncated(maxOffsets));
+            }
+            compact.add(new RecordMatches(record.getRecordName(), Collections.unmodifiableList(matches)));
+        }
+        compact = Collections.unmodifiableList(compact);
+
+        String key = key(checksum, snapshot);
+        synchronized (entries) {
+            entries.put(key, compact);
+        }
+        if (writer != null) {
+            List<RecordMatches> persisted = compact;
+            writer.execute(() -> append(key, persisted));
+        }
+    }
+
+    /** Recupera del archivo las entradas calculadas con este mismo catálogo. */
+    public void load(CatalogSnapshot snapshot) {
+        if (file == null || !isEnabled() || !Files.exists(file)) {
+            return;
+        }
+        Map<String, Integer> ordinals = new HashMap<>();
+        for (String diseaseId : snapshot.getDiseases().keySet()) {
+            ordinals.put(diseaseId, ordinals.size());
+        }
+        int lines = 0;
+        int loaded = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                String[] parts = line.split("\\|", -1);
+                if (parts.length < 2 || !parts[1].equals(snapshot.getFingerprint())) {
+                    continue;
+                }
+                List<RecordMatches> matches = parseRecords(parts, snapshot, ordinals);
+                if (matches != null) {
+                    synchronized (entries) {
+                        entries.put(key(parts[0], snapshot), matches);
+                    }
+                    loaded++;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warning("No se pudo leer la caché de detecciones " + file + ": " + e.getMessage());
+            return;
+        }
+
+        logger.info("Caché de detecciones: " + loaded + " entradas recuperadas de " + file);
+        int existing = lines;
+        writer.execute(() -> {
+            fileLines = existing;
+            maybeCompact();
+        });
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Espera a que se escriban las entradas pendientes. */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warning("La caché de detecciones no terminó de escribirse");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String key(String checksum, CatalogSnapshot snapshot) {
+        return checksum + "|" + snapshot.getFingerprint();
+    }
+
+    // checksum|huella|registro>id:similitud:ocurrencias:distancia:fin:off off ...;id:...|registro>...
+    private void append(String key, List<RecordMatches> matches) {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                                                          StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(formatEntry(key, matches));
+            out.newLine();
+            fileLines++;
+        } catch (IOException e) {
+            logger.warning("No se pudo persistir la caché de detecciones: " + e.getMessage());
+        }
+        maybeCompact();
+    }
+
+    /**
+     * Reescribe el archivo con las entradas del LRU cuando tiene más del doble de
+     * líneas. Las entradas se copian bajo el candado y se escriben fuera; una que se
+     * añada mientras tanto queda además en una línea posterior, y al cargar gana la última.
+     */
+    private void maybeCompact() {
+        if (fileLines <= 2 * maxEntries) {
+            return;
+        }
+        List<Map.Entry<String, List<RecordMatches>>> live;
+        synchronized (entries) {
+            live = new ArrayList<>(entries.entrySet());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, List<RecordMatches>> entry : live) {
+                out.write(formatEntry(entry.getKey(), entry.getValue()));
+                out.newLine();
+            }
+        } catch (IOException e) {
+            logger.warning("No se pudo compactar la caché de detecciones: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.fine("Caché de detecciones compactada: " + fileLines + " -> " + live.size() + " líneas");
+            fileLines = live.size();
+        } catch (IOException e) {
+            logger.warning("No se pudo compactar la caché de detecciones: " + e.getMessage());
+        }
+    }
+
+    // La clave ya es checksum|huella, así que cada entrada conserva la huella de su catálogo
+    private static String formatEntry(String key, List<RecordMatches> records) {
+        StringBuilder entry = new StringBuilder(key);
+        for (RecordMatches record : records) {
+            entry.append('|').append(record.getRecordName()).append('>').append(formatMatches(record.getMatches()));
+        }
+        return entry.toString();
+    }
+
+    private static String formatMatches(List<MarkerMatch> matches) {
+        StringJoiner joiner = new StringJoiner(";");
+        for (MarkerMatch match : matches) {
+            StringJoiner offsets = new StringJoiner(" ");
+            for (int offset : match.getOffsets()) {
+                offsets.add(String.valueOf(offset));
+            }
+            joiner.add(match.getDisease().getDiseaseId() + ":" + match.getBestSimilarity() + ":" +
+                       match.getOccurrenceCount() + ":" + match.getBestEditDistance() + ":" +
+                       match.getBestEditEnd() + ":" + offsets);
+        }
+        return joiner.toString();
+    }
+
+    private static List<RecordMatches> parseRecords(String[] parts, CatalogSnapshot snapshot, Map<String, Integer> ordinals) {
+        List<RecordMatches> records = new ArrayList<>();
+        for (int i = 2; i < parts.length; i++) {
+            int separator = parts[i].indexOf('>');
+            List<MarkerMatch> matches = separator < 0 ? null
+                : parseMatches(parts[i].substring(separator + 1), snapshot, ordinals);
+            if (matches == null) {
+                return null;
+            }
+            records.add(new RecordMatches(parts[i].substring(0, separator), matches));
+        }
+        return Collections.unmodifiableList(records);
+    }
+
+    private static List<MarkerMatch> parseMatches(String field, CatalogSnapshot snapshot, Map<String, Integer> ordinals) {
+        List<MarkerMatch> matches = new ArrayList<>();
+        if (field.isEmpty()) {
+            return matches;
+        }
+        for (String item : field.split(";")) {
+            String[] parts = item.split(":", -1);
+            DiseaseDetector.Disease disease = snapshot.getDiseases().get(parts[0]);
+            if (parts.length != 6 || disease == null) {
+                return null;
+            }
+            SortedSet<Integer> offsets = new TreeSet<>();
+            for (String offset : parts[5].split(" ")) {
+                if (!offset.isEmpty()) {
+                    offsets.add(Integer.parseInt(offset));
+                }
+            }
+            matches.add(new MarkerMatch(ordinals.get(parts[0]), disease, offsets, Integer.parseInt(parts[2]), Double.parseDouble(parts[1]),
+                                        Integer.parseInt(parts[3]), Integer.parseInt(parts[4])));
+        }
+        return Collections.unmodifiableList(matches);
+    }
+}
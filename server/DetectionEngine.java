@@ -0,0 +1,176 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Ejecuta la detección en serie o repartida en un ForkJoinPool compartido. El trabajo
+ * se divide en tramos de la secuencia del paciente y, si hay pocos tramos, también
+ * en grupos de enfermedades. Cada ocurrencia pertenece al tramo donde empieza, así
+ * que unir los resultados en orden de catálogo da lo mismo que la ruta en serie.
+ */
+public class DetectionEngine {
+    private static final Logger logger = Logger.getLogger(DetectionEngine.class.getName());
+    private static final int DEFAULT_CHUNK_BASES = 1 << 20;
+
+    private final ForkJoinPool pool;
+    private final int chunkBases;
+
+    public DetectionEngine(int threads, int chunkBases) {
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        this.chunkBases = Math.max(1, chunkBases);
+        logger.info("Motor de detección " + (pool != null ? "paralelo con " + threads + " hilos" : "en serie") +
+                   ", tramos de " + this.chunkBases + " bases");
+    }
+
+    public static DetectionEngine fromSystemProperties() {
+        boolean parallel = Boolean.parseBoolean(System.getProperty("genomic.detector.parallel", "true"));
+        int threads = Integer.getInteger("genomic.detector.threads", Runtime.getRuntime().availableProcessors());
+        int chunkBases = Integer.getInteger("genomic.detector.chunkBases", DEFAULT_CHUNK_BASES);
+        return new DetectionEngine(parallel ? threads : 1, chunkBases);
+    }
+
+    public CandidateSet findCandidates(KmerIndex index, PackedSequence patientSequence) {
+        int length = patientSequence.length();
+        if (pool == null || length <= chunkBases) {
+            return index.findCandidates(patientSequence);
+        }
+
+        BitSet hitSlots = pool.invoke(new HitSlotsTask(index, patientSequence, 0, length));
+        return index.candidatesFromHits(hitSlots, length);
+    }
+
+    public List<MarkerMatch> search(MarkerSearch search, PackedSequence patientSequence, CandidateSet candidates) {
+        return search(search, patientSequence, candidates, 0, patientSequence.length());
+    }
+
+    /** Busca solo las ocurrencias que empiezan en [from, to), como {@link MarkerSearch#search}. */
+    public List<MarkerMatch> search(MarkerSearch search, PackedSequence patientSequence, CandidateSet candidates,
+                                    int from, int to) {
+        if (pool == null || candidates.isEmpty()) {
+            return search.search(patientSequence, candidates, from, to);
+        }
+
+        List<int[]> ranges = new ArrayList<>();
+        for (int start = from; start < to || start == from; start += chunkBases) {
+            ranges.add(new int[] {start, (int) Math.min((long) start + chunkBases, to)});
+        }
+
+        // El reparto en orden de probabilidad distribuye los aciertos probables entre los grupos
+        List<BitSet> groups = new ArrayList<>();
+        int groupCount = Math.min(candidates.size(), Math.max(1, pool.getParallelism() / ranges.size()));
+        for (int g = 0; g < groupCount; g++) {
+            groups.add(new BitSet());
+        }
+        int next = 0;
+        for (int ordinal : candidates.getOrder()) {
+            groups.get(next++ % groupCount).set(ordinal);
+        }
+
+        List<SearchTask> units = new ArrayList<>();
+        for (BitSet group : groups) {
+            CandidateSet subset = candidates.subset(group);
+            for (int[] range : ranges) {
+                units.add(new SearchTask(search, patientSequence, subset, range[0], range[1]));
+            }
+        }
+
+        Map<Integer, MarkerMatch> merged = new TreeMap<>();
+        for (List<MarkerMatch> partial : pool.invoke(new SearchBatch(units))) {
+            for (MarkerMatch match : partial) {
+                MarkerMatch existing = merged.putIfAbsent(match.getOrdinal(), match);
+                if (existing != null) {
+                    existing.merge(match);
+                }
+            }
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    /** Ejecuta un trabajo independiente en el pool, o en el hilo actual en modo serie. */
+    public <T> CompletableFuture<T> submit(Supplier<T> work) {
+        if (pool == null) {
+            return CompletableFuture.completedFuture(work.get());
+        }
+        return CompletableFuture.supplyAsync(work, pool);
+    }
+
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    // Las tareas nunca se serializan: los campos son transient solo para declararlo
+    private class HitSlotsTask extends RecursiveTask<BitSet> {
+        private static final long serialVersionUID = 1L;
+        private final transient KmerIndex index;
+        private final transient PackedSequence sequence;
+        private final int from;
+        private final int to;
+
+        HitSlotsTask(KmerIndex index, PackedSequence sequence, int from, int to) {
+            this.index = index;
+            this.sequence = sequence;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected BitSet compute() {
+            if (to - from <= chunkBases) {
+                return index.findHitSlots(sequence, from, to);
+            }
+            int middle = from + (to - from) / 2;
+            HitSlotsTask left = new HitSlotsTask(index, sequence, from, middle);
+            left.fork();
+            BitSet hits = new HitSlotsTask(index, sequence, middle, to).compute();
+            hits.or(left.join());
+            return hits;
+        }
+    }
+
+    private static class SearchTask extends RecursiveTask<List<MarkerMatch>> {
+        private static final long serialVersionUID = 1L;
+        private final transient MarkerSearch search;
+        private final transient PackedSequence sequence;
+        private final transient CandidateSet candidates;
+        private final int from;
+        private final int to;
+
+        SearchTask(MarkerSearch search, PackedSequence sequence, CandidateSet candidates, int from, int to) {
+            this.search = search;
+            this.sequence = sequence;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<MarkerMatch> compute() {
+            return search.search(sequence, candidates, from, to);
+        }
+    }
+
+    // Ejecuta todas las unidades y devuelve sus resultados en el orden de la lista
+    private static class SearchBatch extends RecursiveTask<List<List<MarkerMatch>>> {
+        private static final long serialVersionUID = 1L;
+        private final transient List<SearchTask> units;
+
+        SearchBatch(List<SearchTask> units) {
+            this.units = units;
+        }
+
+        @Override
+        protected List<List<MarkerMatch>> compute() {
+            invokeAll(units);
+            List<List<MarkerMatch>> results = new ArrayList<>(units.size());
+            for (SearchTask unit : units) {
+                results.add(unit.join());
+            }
+            return results;
+        }
+    }
+}
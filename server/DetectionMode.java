@@ -0,0 +1,19 @@
+/**
+ * Forma de comparar el marcador de una enfermedad con la secuencia del paciente.
+ * Se elige por enfermedad en la cuarta columna de catalog.csv.
+ */
+public enum DetectionMode {
+    /** Comparación base a base sin huecos (similitud de Hamming). */
+    HAMMING,
+    /** Alineamiento local con huecos afines en una banda alrededor de la semilla. */
+    ALIGN,
+    /** Búsqueda aproximada de Myers: el marcador aparece con a lo sumo k ediciones. */
+    EDIT;
+
+    public static DetectionMode parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return HAMMING;
+        }
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -1,28 +1,125 @@
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 
 public class DiseaseDetector {
     private static final Logger logger = Logger.getLogger(DiseaseDetector.class.getName());
-    private static final String DISEASE_DB_PATH = "disease_db/";
+    static final String DISEASE_DB_PATH = "disease_db/";
     private static final String CATALOG_FILE = "disease_db/catalog.csv";
+    private static final String COMPILED_CATALOG_FILE = System.getProperty("genomic.catalog.compiled", "disease_db/catalog.bin");
     private static final String REPORTS_FILE = "data/disease_reports.csv";
-    private static final String REPORTS_HEADER = "patient_id,disease_id,severity,detection_date,description";
+    private static final int KMER_SIZE = Integer.getInteger("genomic.kmer.size", 11);
+    private static final int MAX_REPORTED_OFFSETS = 100;
+    private static final int DEFAULT_ALIGN_BAND = Integer.getInteger("genomic.align.band", 8);
+    private static final int STREAM_WINDOW_BASES = Integer.getInteger("genomic.stream.windowBases", 1 << 22);
+    // mode_param vacío: se resuelve con la configuración al cargar, no al compilar
+    static final int DEFAULT_MODE_PARAMETER = Integer.MIN_VALUE;
     
-    private Map<String, Disease> diseases;
+    private final AtomicReference<CatalogSnapshot> catalog = new AtomicReference<>();
+    private final AtomicLong catalogVersions = new AtomicLong();
+    private final ExecutorService reloadExecutor;
+    private final DetectionEngine detectionEngine;
+    private final DetectionCache detectionCache;
+    private final AtomicInteger activeAnalyses = new AtomicInteger();
+    private final DiseaseReportStore reportStore;
+    private final DiseaseStats stats = new DiseaseStats();
     
     public DiseaseDetector() {
-        this.diseases = new HashMap<>();
+        this.reloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Núcleo de similitud: " + SimilarityKernels.get().name());
+        this.detectionEngine = DetectionEngine.fromSystemProperties();
+        this.detectionCache = DetectionCache.fromSystemProperties(MAX_REPORTED_OFFSETS);
+        this.reportStore = new DiseaseReportStore(java.nio.file.Paths.get(REPORTS_FILE));
+        reportStore.addListener(stats::record);
+        try {
+            reportStore.load();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudieron cargar los reportes de enfermedades", e);
+        }
     }
     
     public void loadDiseaseDatabase() throws Exception {
+        catalog.set(buildSnapshot());
+        detectionCache.load(catalog.get());
+    }
+    
+    /**
+     * Construye un catálogo nuevo en segundo plano y lo publica al terminar. Las
+     * recargas se ejecutan de una en una; si falla, se conserva el catálogo actual.
+     */
+    public CompletableFuture<CatalogSnapshot> reloadCatalog() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                CatalogSnapshot snapshot = buildSnapshot();
+                catalog.set(snapshot);
+                logger.info("Catálogo recargado: versión " + snapshot.getVersion() + " con " + 
+                           snapshot.getDiseases().size() + " enfermedades");
+                return snapshot;
+            } catch (Exception e) {
+                logger.severe("Error recargando catálogo, se mantiene la versión " + 
+                             getCatalog().getVersion() + ": " + e.getMessage());
+                throw new CompletionException(e);
+            }
+        }, reloadExecutor);
+    }
+    
+    public CatalogSnapshot getCatalog() {
+        return catalog.get();
+    }
+    
+    private CatalogSnapshot buildSnapshot() throws Exception {
         File catalogFile = new File(CATALOG_FILE);
-        if (!catalogFile.exists()) {
+        File compiledFile = new File(COMPILED_CATALOG_FILE);
+        if (!catalogFile.exists() && !compiledFile.exists()) {
             createSampleDiseaseDatabase();
         }
         
+        List<Disease> loaded;
+        if (compiledFile.exists() && (!catalogFile.exists() || compiledFile.lastModified() > newestSourceModified(catalogFile))) {
+            loaded = CompiledCatalog.open(compiledFile);
+            logger.info("Catálogo compilado mapeado desde " + compiledFile.getPath());
+        } else {
+            if (compiledFile.exists()) {
+                logger.warning("Catálogo compilado más antiguo que " + CATALOG_FILE + " o algún FASTA, se usa el CSV");
+            }
+            loaded = readCatalog(catalogFile, DISEASE_DB_PATH);
+        }
+        
+        CatalogSnapshot snapshot = new CatalogSnapshot(catalogVersions.incrementAndGet(), loaded, KMER_SIZE);
+        logger.info("Base de datos de enfermedades cargada con " + snapshot.getDiseases().size() + " enfermedades");
+        logger.info("Índice de k-mers construido (k=" + snapshot.getKmerIndex().getK() + ", " + 
+                   snapshot.getKmerIndex().getDistinctKmers() + " k-mers distintos)");
+        if (snapshot.getSketchIndex() != null) {
+            logger.info("Prefiltro por bocetos MinHash activo");
+        }
+        return snapshot;
+    }
+    
+    // El compilado solo vale si es posterior al CSV y a todos los FASTA, que son la fuente
+    private static long newestSourceModified(File catalogFile) {
+        long newest = catalogFile.lastModified();
+        File[] fastaFiles = new File(DISEASE_DB_PATH).listFiles((dir, name) -> name.endsWith(".fasta"));
+        if (fastaFiles != null) {
+            for (File fastaFile : fastaFiles) {
+                newest = Math.max(newest, fastaFile.lastModified());
+            }
+        }
+        return newest;
+    }
+    
+    // Lee catalog.csv y el FASTA de cada enfermedad; lo usa también el compilador del catálogo
+    static List<Disease> readCatalog(File catalogFile, String dbPath) throws IOException {
+        List<Disease> loaded = new ArrayList<>();
+        
         try (BufferedReader reader = new BufferedReader(new FileReader(catalogFile))) {
             String line = reader.readLine(); // Skip header
             
@@ -33,22 +130,36 @@ public class DiseaseDetector {
                     String name = parts[1].trim();
                     int severity = Integer.parseInt(parts[2].trim());
                     
+                    // Optional columns: detection mode and its parameter (band width for ALIGN, max edits for EDIT)
+                    DetectionMode mode = DetectionMode.parse(parts.length >= 4 ? parts[3] : null);
+                    int modeParameter = parts.length >= 5 && !parts[4].trim().isEmpty() 
+                        ? Integer.parseInt(parts[4].trim()) : DEFAULT_MODE_PARAMETER;
+                    
                     // Load FASTA sequence for this disease
-                    String fastaFile = DISEASE_DB_PATH + diseaseId + ".fasta";
+                    String fastaFile = dbPath + diseaseId + ".fasta";
                     String sequence = loadSequenceFromFile(fastaFile);
                     
                     if (sequence != null) {
-                        diseases.put(diseaseId, new Disease(diseaseId, name, severity, sequence));
-                        logger.info("Enfermedad cargada: " + diseaseId + " - " + name);
+                        loaded.add(new Disease(diseaseId, name, severity, PackedSequence.encode(sequence), 
+                                               mode, modeParameter));
+                        logger.info("Enfermedad cargada: " + diseaseId + " - " + name + " (" + mode + ")");
                     }
                 }
             }
-            
-            logger.info("Base de datos de enfermedades cargada con " + diseases.size() + " enfermedades");
         }
+        
+        return loaded;
     }
     
-    private String loadSequenceFromFile(String filePath) {
+    private static int defaultModeParameter(DetectionMode mode) {
+        switch (mode) {
+            case ALIGN: return DEFAULT_ALIGN_BAND;
+            case EDIT: return Integer.getInteger("genomic.edit.maxEdits", -1);
+            default: return 0;
+        }
+    }
+    
+    private static String loadSequenceFromFile(String filePath) {
         try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
             StringBuilder sequence = new StringBuilder();
             String line;
@@ -69,62 +180,126 @@ public class DiseaseDetector {
         }
     }
     
-    public void analyzeSequence(String patientId, String patientSequence, 
+    /** Con el checksum declarado, un FASTA ya analizado con este catálogo no se vuelve a analizar. */
+    public FastaAnalysis startFastaAnalysis(String patientId, String checksum) {
+        return new FastaAnalysis(patientId, catalog.get(), checksum, detectionEngine, true);
+    }
+    
+    /** Análisis en segundo plano con un catálogo y un motor propios, sin caché. */
+    FastaAnalysis startBackgroundAnalysis(String patientId, CatalogSnapshot snapshot, DetectionEngine engine) {
+        return new FastaAnalysis(patientId, snapshot, null, engine, false);
+    }
+    
+    /** Análisis de clientes en curso; los trabajos en segundo plano ceden mientras haya alguno. */
+    public int getActiveAnalyses() {
+        return activeAnalyses.get();
+    }
+    
+    public DiseaseReportStore getReportStore() {
+        return reportStore;
+    }
+    
+    public DiseaseStats getStats() {
+        return stats;
+    }
+    
+    public DetectionCache getDetectionCache() {
+        return detectionCache;
+    }
+    
+    // Añade a candidatesSeen las enfermedades que pasan el prefiltro en este tramo
+    private List<MarkerMatch> detect(DetectionEngine engine, CatalogSnapshot snapshot, String patientId, 
+                                     PackedSequence sequence, int from, int to, BitSet candidatesSeen) {
+        CandidateSet candidates = snapshot.getSketchIndex() != null
+            ? snapshot.getSketchIndex().findCandidates(sequence)
+            : engine.findCandidates(snapshot.getKmerIndex(), sequence);
+        candidatesSeen.or(candidates.getOrdinals());
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Prefiltro " + prefilterName(snapshot) + " para paciente " + patientId + ", ventana de " + 
+                       (to - from) + " bases: " + candidates.size() + "/" + snapshot.getKmerIndex().getDiseaseCount() + " candidatos");
+        }
+        return engine.search(snapshot.getMarkerSearch(), sequence, candidates, from, to);
+    }
+    
+    public void reportMatches(String patientId, List<RecordMatches> records, 
                               java.io.PrintWriter writer, ServerLogger serverLogger) {
-        for (Disease disease : diseases.values()) {
-            double similarity = calculateSimilarity(patientSequence, disease.getSequence());
+        for (RecordMatches record : records) {
+            reportRecord(patientId, record.getRecordName(), record.getMatches(), writer, serverLogger);
+        }
+        reportStore.flush();
+    }
+    
+    // Con varios registros, el nombre del registro va siempre en el último campo
+    private void reportRecord(String patientId, String recordName, List<MarkerMatch> matches, 
+                              java.io.PrintWriter writer, ServerLogger serverLogger) {
+        for (MarkerMatch match : matches) {
+            Disease disease = match.getDisease();
+            double similarity = match.getBestSimilarity();
+            String message = "DISEASE_DETECTED|" + disease.getDiseaseId() + "|" + 
+                           disease.getName() + "|" + disease.getSeverity() + "|" + 
+                           String.format("%.2f", similarity * 100) + "%|" + 
+                           match.getOccurrenceCount() + "|" + formatOffsets(match.getOffsets()) + "|" + 
+                           disease.getMode();
+            if (disease.getMode() == DetectionMode.EDIT) {
+                message += "|" + match.getBestEditDistance() + "|" + match.getBestEditEnd();
+            }
+            if (recordName != null) {
+                message += "|" + recordName;
+            }
             
-            // Consider a match if similarity is above 85%
-            if (similarity >= 0.85) {
-                String message = "DISEASE_DETECTED|" + disease.getDiseaseId() + "|" + 
-                               disease.getName() + "|" + disease.getSeverity() + "|" + 
-                               String.format("%.2f", similarity * 100) + "%";
-                
+            if (writer != null) {
                 writer.println(message);
-                
-                // Log the detection
-                String description = String.format("Sequence similarity: %.2f%%", similarity * 100);
-                logDiseaseDetection(patientId, disease.getDiseaseId(), disease.getSeverity(), description);
-                
-                serverLogger.log("Enfermedad detectada para paciente " + patientId + ": " + 
-                               disease.getName() + " (similitud: " + String.format("%.2f", similarity * 100) + "%)");
             }
+            
+            // Log the detection
+            String description = String.format("Sequence similarity: %.2f%% at offset %d (%d occurrences)", 
+                                               similarity * 100, match.getOffsets().first(), match.getOccurrenceCount());
+            if (recordName != null) {
+                description += " in record " + recordName;
+            }
+            reportStore.record(patientId, disease.getDiseaseId(), disease.getSeverity(), description);
+            
+            serverLogger.log("Enfermedad detectada para paciente " + patientId + ": " + 
+                           disease.getName() + " (similitud: " + String.format("%.2f", similarity * 100) + "%, " + 
+                           match.getOccurrenceCount() + " ocurrencias)");
         }
     }
     
-    private double calculateSimilarity(String seq1, String seq2) {
-        if (seq1 == null || seq2 == null || seq1.isEmpty() || seq2.isEmpty()) {
-            return 0.0;
-        }
-        
-        int minLength = Math.min(seq1.length(), seq2.length());
-        int matches = 0;
-        
-        for (int i = 0; i < minLength; i++) {
-            if (seq1.charAt(i) == seq2.charAt(i)) {
-                matches++;
-            }
+    public void shutdown() {
+        reloadExecutor.shutdownNow();
+        try {
+            reportStore.close();
+        } catch (IOException e) {
+            logger.warning("Error cerrando reportes de enfermedades: " + e.getMessage());
         }
-        
-        return (double) matches / minLength;
+        detectionCache.close();
+        detectionEngine.shutdown();
     }
     
-    private void logDiseaseDetection(String patientId, String diseaseId, int severity, String description) {
-        try {
-            File reportsFile = new File(REPORTS_FILE);
-            boolean writeHeader = !reportsFile.exists();
-            
-            try (PrintWriter writer = new PrintWriter(new FileWriter(reportsFile, true))) {
-                if (writeHeader) {
-                    writer.println(REPORTS_HEADER);
-                }
-                
-                String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                writer.println(String.join(",", patientId, diseaseId, String.valueOf(severity), timestamp, description));
+    private String formatOffsets(SortedSet<Integer> offsets) {
+        StringJoiner joiner = new StringJoiner(",");
+        int reported = 0;
+        for (int offset : offsets) {
+            if (reported++ == MAX_REPORTED_OFFSETS) {
+                break;
             }
-        } catch (IOException e) {
-            logger.severe("Error registrando detección de enfermedad: " + e.getMessage());
+            joiner.add(String.valueOf(offset));
         }
+        return joiner.toString();
+    }
+    
+    private static String prefilterName(CatalogSnapshot snapshot) {
+        return snapshot.getSketchIndex() != null ? "MinHash" : "k-mer";
+    }
+    
+    // Una línea por análisis: las enfermedades que fueron candidatas en alguna ventana
+    private void logCandidateReduction(CatalogSnapshot snapshot, String patientId, BitSet candidates, int windows) {
+        int total = snapshot.getKmerIndex().getDiseaseCount();
+        int seen = candidates.cardinality();
+        double reduction = total == 0 ? 0.0 : 100.0 * (total - seen) / total;
+        logger.info("Prefiltro " + prefilterName(snapshot) + " para paciente " + patientId + ": " + seen + "/" + total + 
+                   " candidatos en " + windows + (windows == 1 ? " ventana" : " ventanas") + 
+                   " (reducción " + String.format("%.2f", reduction) + "%)");
     }
     
     private void createSampleDiseaseDatabase() throws Exception {
@@ -135,7 +310,7 @@ public class DiseaseDetector {
         
         // Create catalog file
         try (PrintWriter writer = new PrintWriter(new FileWriter(CATALOG_FILE))) {
-            writer.println("disease_id,name,severity");
+            writer.println("disease_id,name,severity,mode,mode_param");
             writer.println("D001,Trastorno Genético Alfa,8");
             writer.println("D002,Condición Hereditaria Beta,6");
             writer.println("D003,Anormalidad Cromosómica Gamma,9");
@@ -161,22 +336,203 @@ public class DiseaseDetector {
         }
     }
     
-    private static class Disease {
+    /**
+     * Análisis de un FASTA con uno o más registros que llega por partes. Cada
+     * registro se analiza por separado; al cerrarse, su última ventana se termina en
+     * el pool de detección mientras llegan los siguientes registros.
+     */
+    public class FastaAnalysis {
+        private final String patientId;
+        private final CatalogSnapshot snapshot;
+        private final String checksum;
+        private final List<RecordMatches> cached;
+        private final List<String> recordNames = new ArrayList<>();
+        private final List<CompletableFuture<List<MarkerMatch>>> recordResults = new ArrayList<>();
+        private final List<StreamingAnalysis> recordAnalyses = new ArrayList<>();
+        private final DetectionEngine engine;
+        private boolean interactive;
+        private boolean cancelled;
+        private StreamingAnalysis current;
+        
+        FastaAnalysis(String patientId, CatalogSnapshot snapshot, String checksum, DetectionEngine engine, boolean interactive) {
+            this.patientId = patientId;
+            this.snapshot = snapshot;
+            this.checksum = checksum;
+            this.engine = engine;
+            this.interactive = interactive;
+            this.cached = checksum != null && detectionCache.isEnabled() ? detectionCache.get(checksum, snapshot) : null;
+            if (interactive) {
+                activeAnalyses.incrementAndGet();
+            }
+        }
+        
+        public void startRecord(String recordName) {
+            if (cancelled) {
+                return;
+            }
+            closeRecord();
+            recordNames.add(recordName);
+            if (cached == null) {
+                current = new StreamingAnalysis(patientId, snapshot, engine);
+                recordAnalyses.add(current);
+            }
+        }
+        
+        public void append(CharSequence bases) {
+            if (current != null) {
+                current.append(bases);
+            }
+        }
+        
+        // Solo se debe llamar con el checksum ya verificado, porque el resultado queda en la caché
+        public List<RecordMatches> finish() {
+            if (cancelled) {
+                throw new IllegalStateException("Análisis cancelado para paciente " + patientId);
+            }
+            if (cached != null) {
+                logger.info("Resultado de detección en caché para paciente " + patientId);
+                return cached;
+            }
+            closeRecord();
+            List<RecordMatches> records = new ArrayList<>(recordNames.size());
+            BitSet candidates = new BitSet();
+            int windows = 0;
+            for (int i = 0; i < recordNames.size(); i++) {
+                records.add(new RecordMatches(recordNames.get(i), recordResults.get(i).join()));
+                candidates.or(recordAnalyses.get(i).candidates);
+                windows += recordAnalyses.get(i).windows;
+            }
+            logCandidateReduction(snapshot, patientId, candidates, windows);
+            if (checksum != null) {
+                detectionCache.put(checksum, snapshot, records);
+            }
+            return records;
+        }
+        
+        private void closeRecord() {
+            if (current != null) {
+                recordResults.add(engine.submit(current::finish));
+                current = null;
+            }
+        }
+        
+        /**
+         * Descarta lo analizado y deja de aceptar bases: las ventanas que aún esperan
+         * en el pool no llegan a buscarse y nada queda en la caché.
+         */
+        public void cancel() {
+            cancelled = true;
+            current = null;
+            recordResults.forEach(result -> result.cancel(false));
+        }
+        
+        /** Marca el análisis como terminado, haya llegado o no a {@link #finish}. */
+        public void release() {
+            if (interactive) {
+                interactive = false;
+                activeAnalyses.decrementAndGet();
+            }
+        }
+    }
+    
+    /**
+     * Análisis por ventanas de una secuencia que llega por partes. Cada ventana
+     * busca las ocurrencias que empiezan en su tramo propio, con contexto a ambos
+     * lados para verificarlas igual que sobre la secuencia entera; solo se conserva
+     * en memoria la ventana actual. Si la secuencia cabe en una ventana, el
+     * resultado es exactamente el de buscar en la secuencia entera.
+     */
+    private class StreamingAnalysis {
+        private final String patientId;
+        private final CatalogSnapshot snapshot;
+        private final int contextBases;
+        private final int windowBases;
+        private final PackedSequence.Builder pending = new PackedSequence.Builder();
+        private final Map<Integer, MarkerMatch> merged = new TreeMap<>();
+        private final DetectionEngine engine;
+        private final BitSet candidates = new BitSet();
+        private int windows;
+        private int windowStart;
+        private int ownedStart;
+        
+        StreamingAnalysis(String patientId, CatalogSnapshot snapshot, DetectionEngine engine) {
+            this.patientId = patientId;
+            this.snapshot = snapshot;
+            this.engine = engine;
+            this.contextBases = snapshot.getContextBases();
+            this.windowBases = Math.max(STREAM_WINDOW_BASES, contextBases);
+        }
+        
+        public void append(CharSequence bases) {
+            if ((long) windowStart + pending.length() + bases.length() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Secuencia de más de " + Integer.MAX_VALUE + " bases");
+            }
+            pending.append(bases);
+            
+            // Una ventana se procesa cuando ya llegó todo el contexto derecho de su tramo
+            while (pending.length() - (ownedStart - windowStart) >= windowBases + 2 * contextBases) {
+                int from = ownedStart - windowStart;
+                searchWindow(pending.build(), from, from + windowBases);
+                ownedStart += windowBases;
+                int nextStart = ownedStart - contextBases;
+                pending.discardBefore(nextStart - windowStart);
+                windowStart = nextStart;
+            }
+        }
+        
+        public List<MarkerMatch> finish() {
+            PackedSequence rest = pending.build();
+            searchWindow(rest, ownedStart - windowStart, rest.length());
+            return new ArrayList<>(merged.values());
+        }
+        
+        private void searchWindow(PackedSequence window, int from, int to) {
+            windows++;
+            for (MarkerMatch match : detect(engine, snapshot, patientId, window, from, to, candidates)) {
+                merged.computeIfAbsent(match.getOrdinal(), ordinal -> new MarkerMatch(ordinal, match.getDisease()))
+                      .merge(match, windowStart);
+            }
+        }
+    }
+    
+    static class Disease {
         private String diseaseId;
         private String name;
         private int severity;
-        private String sequence;
+        private PackedSequence sequence;
+        private DetectionMode mode;
+        private int modeParameter;
+        private int declaredModeParameter;
+        
+        public Disease(String diseaseId, String name, int severity, PackedSequence sequence) {
+            this(diseaseId, name, severity, sequence, DetectionMode.HAMMING, 0);
+        }
         
-        public Disease(String diseaseId, String name, int severity, String sequence) {
+        public Disease(String diseaseId, String name, int severity, PackedSequence sequence, 
+                      DetectionMode mode, int modeParameter) {
             this.diseaseId = diseaseId;
             this.name = name;
             this.severity = severity;
             this.sequence = sequence;
+            this.mode = mode;
+            this.modeParameter = modeParameter == DEFAULT_MODE_PARAMETER ? defaultModeParameter(mode) : modeParameter;
+            this.declaredModeParameter = modeParameter;
         }
         
         public String getDiseaseId() { return diseaseId; }
         public String getName() { return name; }
         public int getSeverity() { return severity; }
-        public String getSequence() { return sequence; }
+        public PackedSequence getSequence() { return sequence; }
+        public DetectionMode getMode() { return mode; }
+        public int getModeParameter() { return modeParameter; }
+        int getDeclaredModeParameter() { return declaredModeParameter; }
+        
+        // Differences allowed by the 85% threshold, or the configured edit budget in EDIT mode
+        public int getAllowedErrors() {
+            if (mode == DetectionMode.EDIT && modeParameter >= 0) {
+                return modeParameter;
+            }
+            return MarkerSearch.maxMismatches(sequence.length());
+        }
     }
 }
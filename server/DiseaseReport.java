@@ -0,0 +1,42 @@
+/**
+ * Una detección registrada: fila de {@code data/disease_reports.csv}.
+ */
+public class DiseaseReport {
+    private final String patientId;
+    private final String diseaseId;
+    private final int severity;
+    private final String detectionDate;
+    private final String description;
+
+    public DiseaseReport(String patientId, String diseaseId, int severity, String detectionDate, String description) {
+        this.patientId = patientId;
+        this.diseaseId = diseaseId;
+        this.severity = severity;
+        this.detectionDate = detectionDate;
+        this.description = description;
+    }
+
+    // La descripción va al final sin comillas, como siempre; puede contener comas
+    public static DiseaseReport fromCsv(String line) {
+        String[] parts = line.split(",", 5);
+        if (parts.length < 4) {
+            return null;
+        }
+        try {
+            return new DiseaseReport(parts[0].trim(), parts[1].trim(), Integer.parseInt(parts[2].trim()), parts[3].trim(),
+                                     parts.length > 4 ? parts[4] : "");
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public String toCsvString() {
+        return String.join(",", patientId, diseaseId, String.valueOf(severity), detectionDate, description);
+    }
+
+    public String getPatientId() { return patientId; }
+    public String getDiseaseId() { return diseaseId; }
+    public int getSeverity() { return severity; }
+    public String getDetectionDate() { return detectionDate; }
+    public String getDescription() { return description; }
+}
@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Reportes de enfermedades en memoria, indexados por paciente, con
+ * {@code data/disease_reports.csv} como log de solo añadir. Cada par
+ * (paciente, enfermedad) se guarda una sola vez: volver a detectar la misma
+ * enfermedad no añade otra fila. Al cargar se descartan los duplicados que ya
+ * hubiera y, si los había, el archivo se reescribe sin ellos.
+ */
+public class DiseaseReportStore implements Closeable {
+    private static final Logger logger = Logger.getLogger(DiseaseReportStore.class.getName());
+    private static final String REPORTS_HEADER = "patient_id,disease_id,severity,detection_date,description";
+
+    private final Path file;
+    // Listas inmutables por paciente: las lecturas no bloquean
+    private final Map<String, List<DiseaseReport>> byPatient = new ConcurrentHashMap<>();
+    private final List<Consumer<DiseaseReport>> listeners = new java.util.concurrent.CopyOnWriteArrayList<>();
+    private BufferedWriter writer;
+    private int reportCount;
+
+    public DiseaseReportStore(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void load() throws IOException {
+        int duplicates = 0;
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file)) {
+                String line = reader.readLine(); // Skip header
+                while ((line = reader.readLine()) != null) {
+                    DiseaseReport report = DiseaseReport.fromCsv(line);
+                    if (report == null) {
+                        logger.warning("Fila de reporte inválida: " + line);
+                    } else if (!add(report)) {
+                        duplicates++;
+                    }
+                }
+            }
+        }
+        if (duplicates > 0 || !Files.exists(file)) {
+            rewrite();
+        }
+        writer = Files.newBufferedWriter(file, StandardOpenOption.APPEND);
+        logger.info("Cargados " + reportCount + " reportes de enfermedades" +
+                   (duplicates > 0 ? " (" + duplicates + " duplicados eliminados)" : ""));
+    }
+
+    /**
+     * Registra la detección si el paciente no la tenía; devuelve false si era un
+     * duplicado. La fila queda en el buffer hasta {@link #flush}.
+     */
+    public synchronized boolean record(String patientId, String diseaseId, int severity, String description) {
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        DiseaseReport report = new DiseaseReport(patientId, diseaseId, severity, timestamp, description);
+        if (!add(report)) {
+            return false;
+        }
+        try {
+            writer.write(report.toCsvString());
+            writer.newLine();
+        } catch (IOException e) {
+            logger.severe("Error registrando detección de enfermedad: " + e.getMessage());
+        }
+        return true;
+    }
+
+    public synchronized void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            logger.severe("Error escribiendo reportes de enfermedades: " + e.getMessage());
+        }
+    }
+
+    /** Detecciones del paciente en orden de registro; coste proporcional a ellas. */
+    public List<DiseaseReport> getReports(String patientId) {
+        return byPatient.getOrDefault(patientId, Collections.emptyList());
+    }
+
+    public void forEach(Consumer<DiseaseReport> consumer) {
+        for (List<DiseaseReport> reports : byPatient.values()) {
+            reports.forEach(consumer);
+        }
+    }
+
+    /**
+     * Se avisa de cada reporte que entra al almacén, también de los que lee
+     * {@link #load} si el oyente se registró antes; si no, esos se recorren con {@link #forEach}.
+     */
+    public void addListener(Consumer<DiseaseReport> listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized int size() {
+        return reportCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    private boolean add(DiseaseReport report) {
+        List<DiseaseReport> current = byPatient.getOrDefault(report.getPatientId(), Collections.emptyList());
+        for (DiseaseReport existing : current) {
+            if (existing.getDiseaseId().equals(report.getDiseaseId())) {
+                return false;
+            }
+        }
+        List<DiseaseReport> updated = new ArrayList<>(current.size() + 1);
+        updated.addAll(current);
+        updated.add(report);
+        byPatient.put(report.getPatientId(), Collections.unmodifiableList(updated));
+        reportCount++;
+        for (Consumer<DiseaseReport> listener : listeners) {
+            listener.accept(report);
+        }
+        return true;
+    }
+
+    private void rewrite() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Paths.get(file + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp)) {
+            out.write(REPORTS_HEADER);
+            out.newLine();
+            for (List<DiseaseReport> reports : byPatient.values()) {
+                for (DiseaseReport report : reports) {
+                    out.write(report.toCsvString());
+                    out.newLine();
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,108 @@
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Agregados de la población mantenidos al registrar cada reporte: pacientes por
+ * enfermedad, histograma de severidad y detecciones por día. Los contadores son
+ * {@link LongAdder}, que reparten los incrementos concurrentes entre celdas, y los
+ * días viven en un anillo de {@code genomic.stats.days} cubos reutilizables. Leer
+ * los agregados cuesta lo mismo con mil reportes que con diez millones.
+ *
+ * <p>Se alimenta de {@link DiseaseReportStore}, que ya descarta los pares
+ * (paciente, enfermedad) repetidos, así que cada enfermedad cuenta pacientes
+ * distintos.
+ */
+public class DiseaseStats {
+    static final int MAX_SEVERITY = 10;
+    private static final int DAYS = Math.max(1, Integer.getInteger("genomic.stats.days", 30));
+
+    private final Map<String, LongAdder> patientsByDisease = new ConcurrentHashMap<>();
+    private final LongAdder[] bySeverity = new LongAdder[MAX_SEVERITY + 1];
+    private final LongAdder total = new LongAdder();
+    private final LongAdder[] dayCounts = new LongAdder[DAYS];
+    // Día (epoch day) al que pertenece ahora cada cubo del anillo
+    private final AtomicLongArray dayOfSlot = new AtomicLongArray(DAYS);
+
+    public DiseaseStats() {
+        for (int i = 0; i < bySeverity.length; i++) {
+            bySeverity[i] = new LongAdder();
+        }
+        for (int i = 0; i < DAYS; i++) {
+            dayCounts[i] = new LongAdder();
+            dayOfSlot.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    public void record(DiseaseReport report) {
+        total.increment();
+        patientsByDisease.computeIfAbsent(report.getDiseaseId(), id -> new LongAdder()).increment();
+        bySeverity[Math.max(0, Math.min(MAX_SEVERITY, report.getSeverity()))].increment();
+        LocalDate day = dayOf(report.getDetectionDate());
+        if (day != null) {
+            addToDay(day.toEpochDay());
+        }
+    }
+
+    private void addToDay(long epochDay) {
+        int slot = (int) Math.floorMod(epochDay, (long) DAYS);
+        if (dayOfSlot.get(slot) != epochDay) {
+            // Solo al cambiar de día: el cubo se vacía una vez y pasa al día nuevo
+            synchronized (dayCounts[slot]) {
+                long current = dayOfSlot.get(slot);
+                if (current > epochDay) {
+                    return; // Fuera de la ventana: el cubo ya es de un día posterior
+                }
+                if (current < epochDay) {
+                    dayCounts[slot].reset();
+                    dayOfSlot.set(slot, epochDay);
+                }
+            }
+        }
+        dayCounts[slot].increment();
+    }
+
+    private static LocalDate dayOf(String detectionDate) {
+        if (detectionDate == null || detectionDate.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(detectionDate.substring(0, 10));
+        } catch (java.time.format.DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /** Pacientes con cada enfermedad detectada, por ID de enfermedad. */
+    public Map<String, Long> getPatientsByDisease() {
+        Map<String, Long> counts = new TreeMap<>();
+        patientsByDisease.forEach((id, count) -> counts.put(id, count.sum()));
+        return counts;
+    }
+
+    /** Detecciones por severidad, de 0 a {@link #MAX_SEVERITY}. */
+    public long[] getSeverityHistogram() {
+        long[] histogram = new long[bySeverity.length];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = bySeverity[i].sum();
+        }
+        return histogram;
+    }
+
+    /** Detecciones de cada día de la ventana que termina en {@code today}, del más antiguo al más reciente. */
+    public Map<LocalDate, Long> getDailyCounts(LocalDate today) {
+        Map<LocalDate, Long> counts = new LinkedHashMap<>();
+        long last = today.toEpochDay();
+        for (long day = last - DAYS + 1; day <= last; day++) {
+            int slot = (int) Math.floorMod(day, (long) DAYS);
+            counts.put(LocalDate.ofEpochDay(day), dayOfSlot.get(slot) == day ? dayCounts[slot].sum() : 0L);
+        }
+        return counts;
+    }
+}
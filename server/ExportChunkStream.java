@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Parte en líneas {@code EXPORT_CHUNK|base64} lo que se escribe en ella, de modo que
+ * un flujo binario viaja por el protocolo de texto sin guardarse entero en memoria.
+ * Cada línea lleva como máximo {@code genomic.export.chunkBytes} bytes, un múltiplo
+ * de 3 para que las líneas concatenadas también sean base64 válido.
+ */
+public class ExportChunkStream extends OutputStream {
+    private static final int CHUNK_BYTES = Integer.getInteger("genomic.export.chunkBytes", 48 << 10) / 3 * 3;
+
+    private final PrintWriter writer;
+    private final byte[] buffer = new byte[CHUNK_BYTES];
+    private int buffered;
+    private long written;
+    private int chunks;
+
+    public ExportChunkStream(PrintWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[buffered++] = (byte) b;
+        if (buffered == buffer.length) {
+            emit();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int copied = Math.min(length, buffer.length - buffered);
+            System.arraycopy(bytes, offset, buffer, buffered, copied);
+            buffered += copied;
+            offset += copied;
+            length -= copied;
+            if (buffered == buffer.length) {
+                emit();
+            }
+        }
+    }
+
+    // Las líneas se mandan al llenarse el bloque; flush() no corta uno a medias
+    @Override
+    public void close() throws IOException {
+        if (buffered > 0) {
+            emit();
+        }
+    }
+
+    // PrintWriter no lanza excepciones: si el cliente se fue, se corta aquí la exportación
+    private void emit() throws IOException {
+        writer.println("EXPORT_CHUNK|" + Base64.getEncoder().encodeToString(Arrays.copyOf(buffer, buffered)));
+        if (writer.checkError()) {
+            throw new IOException("Cliente desconectado durante la exportación");
+        }
+        written += buffered;
+        chunks++;
+        buffered = 0;
+    }
+
+    public long getBytesWritten() {
+        return written;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+}
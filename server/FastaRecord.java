@@ -0,0 +1,37 @@
+/**
+ * Entrada del índice de registros de un FASTA guardado: dónde empieza la cabecera,
+ * dónde empiezan las líneas de secuencia, cuántos bytes ocupan y cuántas bases hay.
+ */
+public class FastaRecord {
+    static final String CSV_HEADER = "record_name,header_offset,sequence_offset,sequence_bytes,bases";
+
+    private final String name;
+    private final long headerOffset;
+    private final long sequenceOffset;
+    private long sequenceBytes;
+    private long bases;
+
+    public FastaRecord(String name, long headerOffset, long sequenceOffset, long sequenceBytes, long bases) {
+        this.name = name;
+        this.headerOffset = headerOffset;
+        this.sequenceOffset = sequenceOffset;
+        this.sequenceBytes = sequenceBytes;
+        this.bases = bases;
+    }
+
+    void addSequenceLine(long lineBytes, int lineBases) {
+        sequenceBytes += lineBytes;
+        bases += lineBases;
+    }
+
+    public String getName() { return name; }
+    public long getHeaderOffset() { return headerOffset; }
+    public long getSequenceOffset() { return sequenceOffset; }
+    public long getSequenceBytes() { return sequenceBytes; }
+    public long getBases() { return bases; }
+
+    public String toCsvString() {
+        return String.join(",", name, String.valueOf(headerOffset), String.valueOf(sequenceOffset),
+                           String.valueOf(sequenceBytes), String.valueOf(bases));
+    }
+}
@@ -0,0 +1,106 @@
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Recepción en streaming de un SUBMIT_FASTA: cada línea se valida, se suma al
+ * SHA-256, se escribe en un archivo temporal y sus bases pasan al análisis por
+ * ventanas del registro al que pertenecen, sin acumular el archivo completo en
+ * memoria. Mientras llega se construye el índice de registros. El archivo y los
+ * resultados solo se publican después de comprobar el checksum.
+ */
+public class FastaUpload implements Closeable {
+    private static final Logger logger = Logger.getLogger(FastaUpload.class.getName());
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final String patientId;
+    private final DiseaseDetector.FastaAnalysis analysis;
+    private final List<FastaRecord> records = new ArrayList<>();
+    private final FastaValidator.StreamingValidator validator = new FastaValidator.StreamingValidator();
+    private final MessageDigest digest;
+    private final Path tempFile;
+    private final OutputStream output;
+    private long bytesReceived;
+    private String checksum;
+    private boolean committed;
+
+    public FastaUpload(String patientId, DiseaseDetector.FastaAnalysis analysis) throws IOException {
+        this.patientId = patientId;
+        this.analysis = analysis;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Algoritmo SHA-256 no disponible", e);
+        }
+        this.tempFile = FileManager.createFastaTempFile(patientId);
+        this.output = new BufferedOutputStream(Files.newOutputStream(tempFile), OUTPUT_BUFFER_SIZE);
+    }
+
+    // Mismos bytes que antes se guardaban y se resumían: la línea más un salto de línea
+    public void acceptLine(String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes();
+        long lineOffset = bytesReceived;
+        digest.update(bytes);
+        output.write(bytes);
+        bytesReceived += bytes.length;
+
+        String bases = validator.acceptLine(line);
+        if (validator.hasError()) {
+            // El FASTA se rechazará al terminar: no se sigue analizando
+            analysis.cancel();
+            return;
+        }
+        if (validator.getRecordCount() > records.size()) {
+            records.add(new FastaRecord(validator.getRecordName(), lineOffset, bytesReceived, 0, 0));
+            analysis.startRecord(validator.getRecordName());
+        } else if (!records.isEmpty()) {
+            records.get(records.size() - 1).addSequenceLine(bytes.length, bases != null ? bases.length() : 0);
+        }
+        if (bases != null) {
+            analysis.append(bases);
+        }
+    }
+
+    public boolean isValidFasta() {
+        return validator.isValid();
+    }
+
+    public String getChecksum() {
+        if (checksum == null) {
+            checksum = FastaValidator.toHex(digest.digest());
+        }
+        return checksum;
+    }
+
+    public void commit() throws IOException {
+        output.close();
+        FileManager.commitFastaFile(patientId, tempFile, records);
+        committed = true;
+    }
+
+    /** Analiza lo que queda pendiente y devuelve las detecciones de cada registro, en orden. */
+    public List<RecordMatches> finishAnalysis() {
+        return analysis.finish();
+    }
+
+    @Override
+    public void close() {
+        if (committed) {
+            analysis.release();
+            return;
+        }
+        // Checksum distinto, paciente no encontrado o conexión cortada: nada se publica
+        analysis.cancel();
+        analysis.release();
+        try {
+            output.close();
+            Files.deleteIfExists(tempFile);
+        } catch (IOException e) {
+            logger.warning("No se pudo borrar el temporal " + tempFile + ": " + e.getMessage());
+        }
+    }
+}
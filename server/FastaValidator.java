@@ -1,74 +1,115 @@
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.*;
 import java.util.regex.Pattern;
 
 public class FastaValidator {
     private static final Pattern FASTA_HEADER_PATTERN = Pattern.compile("^>[\\w\\d_]+$");
-    private static final Pattern SEQUENCE_PATTERN = Pattern.compile("^[ACGTN]+$");
     
     public static boolean isValidFasta(String fastaContent) {
-        if (fastaContent == null || fastaContent.trim().isEmpty()) {
-            return false;
-        }
-        
-        String[] lines = fastaContent.trim().split("\n");
-        
-        if (lines.length < 2) {
-            return false;
-        }
-        
-        // Check header line
-        if (!lines[0].startsWith(">")) {
-            return false;
-        }
-        
-        if (!FASTA_HEADER_PATTERN.matcher(lines[0]).matches()) {
+        if (fastaContent == null) {
             return false;
         }
         
-        // Check sequence lines
-        for (int i = 1; i < lines.length; i++) {
-            String line = lines[i].trim().toUpperCase();
-            if (!line.isEmpty() && !SEQUENCE_PATTERN.matcher(line).matches()) {
-                return false;
-            }
+        StreamingValidator validator = new StreamingValidator();
+        for (String line : fastaContent.split("\n")) {
+            validator.acceptLine(line);
         }
-        
-        return true;
+        return validator.isValid();
     }
     
-    public static String extractSequence(String fastaContent) {
-        if (fastaContent == null) {
-            return "";
+    public static String calculateChecksum(String content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return toHex(md.digest(content.getBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Algoritmo SHA-256 no disponible", e);
         }
+    }
+    
+    public static String toHex(byte[] hash) {
+        StringBuilder hexString = new StringBuilder();
         
-        String[] lines = fastaContent.trim().split("\n");
-        StringBuilder sequence = new StringBuilder();
-        
-        for (int i = 1; i < lines.length; i++) {
-            sequence.append(lines[i].trim().toUpperCase());
+        for (byte b : hash) {
+            String hex = Integer.toHexString(0xff & b);
+            if (hex.length() == 1) {
+                hexString.append('0');
+            }
+            hexString.append(hex);
         }
         
-        return sequence.toString();
+        return hexString.toString();
     }
     
-    public static String calculateChecksum(String content) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(content.getBytes());
-            StringBuilder hexString = new StringBuilder();
+    /**
+     * Validación línea a línea con las reglas de {@link #isValidFasta}: se ignoran
+     * las líneas en blanco iniciales, cada línea que empieza por '>' abre un registro
+     * nuevo, toda cabecera debe cumplir el patrón con un nombre no repetido y cada
+     * registro necesita al menos una línea de secuencia no vacía.
+     */
+    public static class StreamingValidator {
+        private final Set<String> recordNames = new HashSet<>();
+        private String recordName;
+        private boolean invalid;
+        private long recordSequenceLines;
+        
+        /** Devuelve las bases de la línea si es de secuencia, o null en otro caso. */
+        public String acceptLine(String line) {
+            if (invalid) {
+                return null;
+            }
             
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
+            String bases = line.trim();
+            if (bases.isEmpty()) {
+                return null;
+            }
+            
+            if (recordName == null || bases.charAt(0) == '>') {
+                if (recordName != null && recordSequenceLines == 0) {
+                    invalid = true;
+                    return null;
+                }
+                int start = 0;
+                while (line.charAt(start) <= ' ') {
+                    start++;
                 }
-                hexString.append(hex);
+                String header = line.substring(start);
+                recordName = header.substring(1);
+                recordSequenceLines = 0;
+                invalid = !FASTA_HEADER_PATTERN.matcher(header).matches() || !recordNames.add(recordName);
+                return null;
             }
             
-            return hexString.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Algoritmo SHA-256 no disponible", e);
+            for (int i = 0; i < bases.length(); i++) {
+                switch (bases.charAt(i)) {
+                    case 'A': case 'C': case 'G': case 'T': case 'N':
+                    case 'a': case 'c': case 'g': case 't': case 'n':
+                        break;
+                    default:
+                        invalid = true;
+                        return null;
+                }
+            }
+            recordSequenceLines++;
+            return bases;
+        }
+        
+        public boolean isValid() {
+            return recordName != null && !invalid && recordSequenceLines > 0;
+        }
+        
+        /** Si ya se encontró un error; ninguna línea posterior lo corrige. */
+        public boolean hasError() {
+            return invalid;
+        }
+        
+        /** Nombre del registro actual, la cabecera sin '>'. */
+        public String getRecordName() {
+            return recordName;
+        }
+        
+        public int getRecordCount() {
+            return recordNames.size();
         }
     }
 }
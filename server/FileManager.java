@@ -1,5 +1,6 @@
 import java.io.*;
 import java.nio.file.*;
+import java.util.*;
 import java.util.logging.Logger;
 
 public class FileManager {
@@ -20,6 +21,29 @@ public class FileManager {
         logger.info("Archivo FASTA guardado para paciente: " + patientId);
     }
     
+    // Las subidas se escriben en un temporal que solo se publica si el checksum coincide
+    public static Path createFastaTempFile(String patientId) throws IOException {
+        Path fastaDir = Paths.get(FASTA_DIR);
+        Files.createDirectories(fastaDir);
+        return Files.createTempFile(fastaDir, patientId + "-", ".fasta.tmp");
+    }
+    
+    // El índice se publica antes que el FASTA; un índice sin FASTA nuevo se sobrescribe en el siguiente envío
+    public static void commitFastaFile(String patientId, Path tempFile, List<FastaRecord> records) throws IOException {
+        Path indexTemp = Files.createTempFile(Paths.get(FASTA_DIR), patientId + "-", ".idx.tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(indexTemp))) {
+            writer.println(FastaRecord.CSV_HEADER);
+            for (FastaRecord record : records) {
+                writer.println(record.toCsvString());
+            }
+        }
+        Files.move(indexTemp, Paths.get(FASTA_DIR + patientId + ".fasta.idx"), 
+                  StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tempFile, Paths.get(FASTA_DIR + patientId + ".fasta"), 
+                  StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Archivo FASTA guardado para paciente: " + patientId + " (" + records.size() + " registros)");
+    }
+    
     public static String loadFastaFile(String patientId) throws IOException {
         String filename = FASTA_DIR + patientId + ".fasta";
         File file = new File(filename);
@@ -35,6 +59,7 @@ public class FileManager {
         String filename = FASTA_DIR + patientId + ".fasta";
         File file = new File(filename);
         
+        new File(filename + ".idx").delete();
         if (file.exists()) {
             boolean deleted = file.delete();
             if (deleted) {
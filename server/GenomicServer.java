@@ -1,5 +1,6 @@
 import javax.net.ssl.*;
 import java.io.*;
+import java.nio.file.Paths;
 import java.security.*;
 import java.util.concurrent.*;
 import java.util.logging.*;
@@ -15,6 +16,8 @@ public class GenomicServer {
     private PatientManager patientManager;
     private DiseaseDetector diseaseDetector;
     private ServerLogger serverLogger;
+    private CatalogWatcher catalogWatcher;
+    private ReanalysisJob reanalysisJob;
     private volatile boolean running = false;
     
     public GenomicServer() {
@@ -22,6 +25,10 @@ public class GenomicServer {
         this.patientManager = new PatientManager();
         this.diseaseDetector = new DiseaseDetector();
         this.serverLogger = new ServerLogger();
+        DiseaseReportStore reports = diseaseDetector.getReportStore();
+        reports.forEach(report -> patientManager.recordDetection(report.getPatientId(), report.getDiseaseId()));
+        reports.addListener(report -> patientManager.recordDetection(report.getPatientId(), report.getDiseaseId()));
+        this.reanalysisJob = new ReanalysisJob(patientManager, diseaseDetector, serverLogger);
         setupLogging();
     }
     
@@ -46,11 +53,15 @@ public class GenomicServer {
         System.out.println("Servidor Genómico iniciado en puerto " + PORT);
         diseaseDetector.loadDiseaseDatabase();
         logger.info("Base de datos de enfermedades cargada exitosamente");
+        if (Boolean.parseBoolean(System.getProperty("genomic.catalog.watch", "true"))) {
+            catalogWatcher = new CatalogWatcher(Paths.get(DiseaseDetector.DISEASE_DB_PATH), diseaseDetector::reloadCatalog);
+            catalogWatcher.start();
+        }
         while (running) {
             try {
                 SSLSocket clientSocket = (SSLSocket) serverSocket.accept();
                 logger.info("Nuevo cliente conectado: " + clientSocket.getRemoteSocketAddress());
-                threadPool.submit(new ClientHandler(clientSocket, patientManager, diseaseDetector, serverLogger));
+                threadPool.submit(new ClientHandler(clientSocket, patientManager, diseaseDetector, serverLogger, reanalysisJob));
             } catch (IOException e) {
                 if (running) {
                     logger.severe("Error aceptando conexión de cliente: " + e.getMessage());
@@ -81,6 +92,11 @@ public class GenomicServer {
             if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
                 threadPool.shutdownNow();
             }
+            if (catalogWatcher != null) {
+                catalogWatcher.close();
+            }
+            diseaseDetector.shutdown();
+            patientManager.close();
             logger.info("Servidor Genómico detenido");
         } catch (Exception e) {
             logger.severe("Error deteniendo servidor: " + e.getMessage());
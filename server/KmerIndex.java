@@ -0,0 +1,322 @@
+import java.util.*;
+
+/**
+ * Índice invertido de k-mers del catálogo de enfermedades. Cada k-mer (codificado a
+ * 2 bits por base) apunta a las enfermedades que lo contienen y a su desplazamiento
+ * dentro del marcador. Sirve para descartar las enfermedades que no comparten
+ * suficientes k-mers con el paciente y para sembrar la búsqueda de ocurrencias.
+ */
+public class KmerIndex {
+    public interface SeedVisitor {
+        void seed(int ordinal, int markerOffset, int sequenceOffset);
+    }
+
+    private static final long NO_KMER = -1L;
+
+    private final List<DiseaseDetector.Disease> diseases;
+    private final int k;
+    private final long kmerMask;
+    private final long[] keys;
+    private final int[] postingStart;
+    private final int[] postingDisease;
+    private final int[] postingOffset;
+    private final int[] minShared;
+    private final int distinctKmers;
+    private final int maxMarkerLength;
+
+    public KmerIndex(List<DiseaseDetector.Disease> diseases, int k) {
+        this(diseases, k, null);
+    }
+
+    /**
+     * Índice de siembra por palomar: de cada enfermedad con {@code strides[ordinal] > 0}
+     * guarda solo los k-mers que empiezan en múltiplos de ese paso. Si el marcador se
+     * parte en e + 1 trozos disjuntos, uno de ellos aparece exacto en toda ocurrencia
+     * con e diferencias, así que su prefijo de k bases la siembra.
+     */
+    static KmerIndex pieces(List<DiseaseDetector.Disease> diseases, int k, int[] strides) {
+        return new KmerIndex(diseases, k, strides);
+    }
+
+    private KmerIndex(List<DiseaseDetector.Disease> diseases, int k, int[] strides) {
+        if (k < 1 || k > 31) {
+            throw new IllegalArgumentException("Tamaño de k-mer inválido: " + k);
+        }
+        this.diseases = List.copyOf(diseases);
+        this.k = k;
+        this.kmerMask = (1L << (2 * k)) - 1;
+        this.minShared = new int[diseases.size()];
+
+        long[][] kmersByDisease = new long[diseases.size()][];
+        int totalPostings = 0;
+        int longest = 0;
+        for (int ordinal = 0; ordinal < diseases.size(); ordinal++) {
+            PackedSequence sequence = diseases.get(ordinal).getSequence();
+            longest = Math.max(longest, sequence.length());
+            long[] kmers = strides == null ? kmersByOffset(sequence)
+                         : strides[ordinal] > 0 ? everyStride(kmersByOffset(sequence), strides[ordinal]) : new long[0];
+            kmersByDisease[ordinal] = kmers;
+            minShared[ordinal] = requiredSharedKmers(sequence.length(), diseases.get(ordinal).getAllowedErrors(),
+                                                     countDistinct(kmers));
+            for (long kmer : kmers) {
+                if (kmer != NO_KMER) {
+                    totalPostings++;
+                }
+            }
+        }
+
+        this.maxMarkerLength = longest;
+
+        int capacity = Integer.highestOneBit(Math.max(2, totalPostings) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        int[] counts = new int[capacity];
+        int distinct = 0;
+        for (long[] kmers : kmersByDisease) {
+            for (long kmer : kmers) {
+                if (kmer != NO_KMER && counts[insertSlot(kmer)]++ == 0) {
+                    distinct++;
+                }
+            }
+        }
+        this.distinctKmers = distinct;
+
+        // Dentro de cada celda las entradas quedan ordenadas por ordinal y desplazamiento
+        this.postingStart = new int[capacity + 1];
+        for (int slot = 0; slot < capacity; slot++) {
+            postingStart[slot + 1] = postingStart[slot] + counts[slot];
+        }
+        this.postingDisease = new int[totalPostings];
+        this.postingOffset = new int[totalPostings];
+        int[] fill = Arrays.copyOf(postingStart, capacity);
+        for (int ordinal = 0; ordinal < kmersByDisease.length; ordinal++) {
+            long[] kmers = kmersByDisease[ordinal];
+            for (int offset = 0; offset < kmers.length; offset++) {
+                if (kmers[offset] != NO_KMER) {
+                    int position = fill[findSlot(kmers[offset])]++;
+                    postingDisease[position] = ordinal;
+                    postingOffset[position] = offset;
+                }
+            }
+        }
+    }
+
+    /**
+     * Devuelve los ordinales de las enfermedades que comparten con el paciente al
+     * menos el número mínimo de k-mers distintos. Por el lema de q-gramas, una
+     * ocurrencia con a lo sumo e diferencias (las que permite el 85% de identidad, o
+     * el presupuesto de ediciones en modo EDIT) comparte al menos (m - k + 1) - k * e
+     * k-mers; si esa cota no es positiva el filtro no puede descartar nada y la
+     * enfermedad pasa siempre. Los marcadores más cortos que k, o más largos que la
+     * secuencia del paciente, también pasan siempre.
+     */
+    public CandidateSet findCandidates(PackedSequence patientSequence) {
+        return candidatesFromHits(findHitSlots(patientSequence, 0, patientSequence.length()), patientSequence.length());
+    }
+
+    public CandidateSet candidatesFromHits(BitSet hitSlots, int patientLength) {
+        int[] shared = countSharedKmers(hitSlots);
+        BitSet candidates = new BitSet(diseases.size());
+        double[] likelihood = new double[diseases.size()];
+
+        for (int ordinal = 0; ordinal < diseases.size(); ordinal++) {
+            int markerLength = diseases.get(ordinal).getSequence().length();
+            if (markerLength < k || markerLength > patientLength || shared[ordinal] >= minShared[ordinal]) {
+                candidates.set(ordinal);
+                likelihood[ordinal] = minShared[ordinal] > 0 ? (double) shared[ordinal] / minShared[ordinal] : 1.0;
+            }
+        }
+
+        return CandidateSet.ranked(candidates, likelihood);
+    }
+
+    /**
+     * Marca las celdas del índice cuyos k-mers aparecen en la secuencia empezando en
+     * [from, to). Los conjuntos de tramos distintos se pueden unir con {@code or}.
+     */
+    public BitSet findHitSlots(PackedSequence sequence, int from, int to) {
+        BitSet hitSlots = new BitSet(keys.length);
+        int end = Math.min(sequence.length(), to + k - 1);
+
+        long kmer = 0;
+        int valid = 0;
+        for (int i = from; i < end; i++) {
+            int code = sequence.codeAt(i);
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & kmerMask;
+            if (++valid < k) {
+                continue;
+            }
+
+            int slot = findSlot(kmer);
+            if (slot >= 0) {
+                hitSlots.set(slot);
+            }
+        }
+
+        return hitSlots;
+    }
+
+    private int[] countSharedKmers(BitSet hitSlots) {
+        int[] shared = new int[diseases.size()];
+        for (int slot = hitSlots.nextSetBit(0); slot >= 0; slot = hitSlots.nextSetBit(slot + 1)) {
+            int previous = -1;
+            for (int p = postingStart[slot]; p < postingStart[slot + 1]; p++) {
+                if (postingDisease[p] != previous) {
+                    previous = postingDisease[p];
+                    shared[previous]++;
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Recorre los k-mers que empiezan en [from, to) y notifica cada uno que aparece
+     * en el catálogo, con su desplazamiento en el marcador y en la secuencia, para
+     * las enfermedades marcadas en {@code ordinals}.
+     */
+    public void scanSeeds(PackedSequence sequence, BitSet ordinals, int from, int to, SeedVisitor visitor) {
+        int end = Math.min(sequence.length(), to + k - 1);
+        long kmer = 0;
+        int valid = 0;
+        for (int i = from; i < end; i++) {
+            int code = sequence.codeAt(i);
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & kmerMask;
+            if (++valid < k) {
+                continue;
+            }
+
+            int slot = findSlot(kmer);
+            if (slot < 0) {
+                continue;
+            }
+            int sequenceOffset = i - k + 1;
+            for (int p = postingStart[slot]; p < postingStart[slot + 1]; p++) {
+                if (ordinals.get(postingDisease[p])) {
+                    visitor.seed(postingDisease[p], postingOffset[p], sequenceOffset);
+                }
+            }
+        }
+    }
+
+    public List<DiseaseDetector.Disease> getDiseases() {
+        return diseases;
+    }
+
+    public DiseaseDetector.Disease getDisease(int ordinal) {
+        return diseases.get(ordinal);
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int getDistinctKmers() {
+        return distinctKmers;
+    }
+
+    public int getDiseaseCount() {
+        return diseases.size();
+    }
+
+    /** Cierto si toda ocurrencia de la enfermedad comparte al menos un k-mer exacto en su diagonal. */
+    public boolean isSeedable(int ordinal) {
+        return minShared[ordinal] > 0;
+    }
+
+    public int getMaxMarkerLength() {
+        return maxMarkerLength;
+    }
+
+    // k-mer que empieza en cada posición del marcador, o NO_KMER si contiene una base ambigua
+    private long[] kmersByOffset(PackedSequence sequence) {
+        if (sequence.length() < k) {
+            return new long[0];
+        }
+
+        long[] kmers = new long[sequence.length() - k + 1];
+        long kmer = 0;
+        int valid = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            int code = sequence.codeAt(i);
+            if (code < 0) {
+                valid = 0;
+            } else {
+                kmer = ((kmer << 2) | code) & kmerMask;
+                valid++;
+            }
+            if (i >= k - 1) {
+                kmers[i - k + 1] = valid >= k ? kmer : NO_KMER;
+            }
+        }
+        return kmers;
+    }
+
+    private static long[] everyStride(long[] kmers, int stride) {
+        for (int offset = 0; offset < kmers.length; offset++) {
+            if (offset % stride != 0) {
+                kmers[offset] = NO_KMER;
+            }
+        }
+        return kmers;
+    }
+
+    private static int countDistinct(long[] kmers) {
+        long[] sorted = kmers.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (sorted[i] != NO_KMER && (i == 0 || sorted[i] != sorted[i - 1])) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    private int requiredSharedKmers(int markerLength, int allowedErrors, int distinct) {
+        int positions = Math.max(0, markerLength - k + 1);
+        // Los k-mers repetidos dentro del marcador reducen los distintos que se pueden compartir
+        int bound = positions - k * allowedErrors - (positions - distinct);
+        // Sin cota positiva una ocurrencia puede no compartir ningún k-mer exacto
+        return Math.max(0, bound);
+    }
+
+    // Las claves se guardan desplazadas en 1 para que 0 marque una celda vacía
+    private int insertSlot(long kmer) {
+        int mask = keys.length - 1;
+        int slot = (int) mix(kmer) & mask;
+        while (keys[slot] != 0 && keys[slot] != kmer + 1) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = kmer + 1;
+        return slot;
+    }
+
+    private int findSlot(long kmer) {
+        int mask = keys.length - 1;
+        int slot = (int) mix(kmer) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == kmer + 1) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,654 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Almacén de pacientes tipo LSM en {@code data/patients-lsm/}. Las escrituras van
+ * al log ({@link PatientLog}) y a una tabla en memoria; al superar
+ * {@code genomic.lsm.memtableBytes} la tabla se congela y un hilo en segundo plano
+ * la vuelca a un {@link LsmSegment}. Todo lo que se escribe en disco es secuencial.
+ * El archivo {@code MANIFEST} lista los segmentos vivos del más antiguo al más
+ * reciente; una lectura mira la tabla activa, las congeladas y los segmentos en ese
+ * orden inverso y se queda con la primera versión que encuentra.
+ *
+ * <p>Compactación por niveles de tamaño: cuando los
+ * {@code genomic.lsm.compactionFanout} segmentos más recientes son de un tamaño
+ * parecido se fusionan en uno, así cada paciente se reescribe un número
+ * logarítmico de veces. Los borrados se descartan al fusionar hasta el segmento
+ * más antiguo.
+ *
+ * <p>Cada escritura recibe un número de secuencia. Un snapshot guarda el último
+ * número y el estado (tablas y segmentos) de ese momento; los segmentos que una
+ * compactación reemplaza siguen abiertos mientras algún estado los use.
+ *
+ * <p>Si el directorio no existe pero hay datos del almacén CSV, se importan en un
+ * primer segmento; {@code patients.csv} y sus logs no se vuelven a modificar.
+ */
+public class LsmPatientStore implements PatientStore {
+    private static final Logger logger = Logger.getLogger(LsmPatientStore.class.getName());
+    private static final long MEMTABLE_BYTES = Long.getLong("genomic.lsm.memtableBytes", 8L << 20);
+    private static final int COMPACTION_FANOUT = Math.max(2, Integer.getInteger("genomic.lsm.compactionFanout", 4));
+    private static final int BLOOM_BITS_PER_KEY = Integer.getInteger("genomic.lsm.bloomBitsPerKey", 10);
+    private static final long FLUSH_RETRY_MILLIS = Long.getLong("genomic.lsm.flushRetryMillis", 1000);
+    // Objetos de la tabla en memoria por entrada, además del texto
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final String MANIFEST = "MANIFEST";
+
+    private final Path legacyDirectory;
+    private final Path directory;
+    private final PatientLog wal;
+    // Las escrituras comparten el candado desde el log hasta la tabla; congelar la
+    // tabla y rotar el log lo piden en exclusiva
+    private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+    // Asignar secuencia e insertar es atómico frente a los snapshots y cambios de estado
+    private final Object sequenceLock = new Object();
+    private long lastSequence;
+    private volatile State current;
+    private final ScheduledThreadPoolExecutor background;
+    private final AtomicBoolean flushRetryPending = new AtomicBoolean();
+    private long nextSegmentNumber = 1;
+
+    /** Recorrido ordenado por ID con una sola versión por clave. */
+    interface Cursor {
+        boolean valid();
+
+        String key();
+
+        /** El paciente o {@link LsmSegment#TOMBSTONE}. */
+        Patient value();
+
+        void next();
+    }
+
+    public LsmPatientStore(Path legacyDirectory) {
+        this.legacyDirectory = legacyDirectory;
+        this.directory = legacyDirectory.resolve("patients-lsm");
+        this.wal = new PatientLog(directory, "wal");
+        this.background = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "patient-lsm");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Al cerrar no se esperan reintentos pendientes: las tablas congeladas siguen en el log
+        background.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        Path manifest = directory.resolve(MANIFEST);
+        List<LsmSegment> segments = new ArrayList<>();
+        if (Files.exists(manifest)) {
+            for (String name : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                if (!name.isBlank()) {
+                    segments.add(LsmSegment.open(directory.resolve(name.trim())));
+                    nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(name.trim()) + 1);
+                }
+            }
+            deleteUnlisted(segments);
+        } else {
+            deleteUnlisted(segments);
+            LsmSegment imported = importLegacyStore();
+            if (imported != null) {
+                segments.add(imported);
+            }
+            writeManifest(segments);
+        }
+        current = new State(new Memtable(), Collections.emptyList(), segments);
+
+        wal.replay(csvLine -> {
+            Patient patient = PatientCsvLoader.parseLine(csvLine);
+            if (patient != null) {
+                insert(patient.getPatientId(), patient, csvLine.length());
+            }
+        }, patientId -> insert(patientId, LsmSegment.TOMBSTONE, patientId.length()));
+        long records = 0;
+        for (LsmSegment segment : segments) {
+            records += segment.getRecords();
+        }
+        logger.info("Almacén LSM abierto: " + segments.size() + " segmentos con " + records + " registros");
+    }
+
+    @Override
+    public Patient get(String patientId) {
+        State state = acquire();
+        try {
+            Patient patient = lookup(state, patientId, Long.MAX_VALUE);
+            return patient == LsmSegment.TOMBSTONE ? null : patient;
+        } finally {
+            state.release();
+        }
+    }
+
+    @Override
+    public void put(Patient patient) throws IOException {
+        String csvLine = patient.toCsvString();
+        Memtable memtable;
+        writeGate.readLock().lock();
+        try {
+            wal.append(csvLine);
+            memtable = insert(patient.getPatientId(), patient, csvLine.length());
+        } finally {
+            writeGate.readLock().unlock();
+        }
+        freezeIfFull(memtable);
+    }
+
+    @Override
+    public void delete(String patientId) throws IOException {
+        Memtable memtable;
+        writeGate.readLock().lock();
+        try {
+            wal.appendDelete(patientId);
+            memtable = insert(patientId, LsmSegment.TOMBSTONE, patientId.length());
+        } finally {
+            writeGate.readLock().unlock();
+        }
+        freezeIfFull(memtable);
+    }
+
+    /** Recorre un snapshot, así que no ve escrituras que lleguen durante el recorrido. */
+    @Override
+    public void scan(String fromId, Predicate<Patient> visitor) {
+        try (Snapshot snapshot = snapshot()) {
+            snapshot.scan(fromId, visitor);
+        }
+    }
+
+    @Override
+    public Snapshot snapshot() {
+        State state;
+        long sequence;
+        synchronized (sequenceLock) {
+            state = acquire();
+            sequence = lastSequence;
+        }
+        AtomicBoolean closed = new AtomicBoolean();
+        return new Snapshot() {
+            @Override
+            public Patient get(String patientId) {
+                Patient patient = lookup(state, patientId, sequence);
+                return patient == LsmSegment.TOMBSTONE ? null : patient;
+            }
+
+            @Override
+            public void scan(String fromId, Predicate<Patient> visitor) {
+                for (Cursor cursor = merged(state, fromId, sequence); cursor.valid(); cursor.next()) {
+                    Patient patient = cursor.value();
+                    if (patient != LsmSegment.TOMBSTONE && !visitor.test(patient)) {
+                        return;
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                if (closed.compareAndSet(false, true)) {
+                    state.release();
+                }
+            }
+        };
+    }
+
+    private Memtable insert(String patientId, Patient value, int bytes) {
+        Memtable memtable;
+        synchronized (sequenceLock) {
+            memtable = current.memtable;
+            memtable.entries.put(new MemKey(patientId, ++lastSequence), value);
+        }
+        memtable.bytes.addAndGet(bytes + ENTRY_OVERHEAD);
+        return memtable;
+    }
+
+    private static Patient lookup(State state, String patientId, long sequence) {
+        Patient patient = state.memtable.get(patientId, sequence);
+        for (int i = 0; patient == null && i < state.frozen.size(); i++) {
+            patient = state.frozen.get(i).get(patientId, Long.MAX_VALUE);
+        }
+        for (int i = state.segments.size() - 1; patient == null && i >= 0; i--) {
+            patient = state.segments.get(i).get(patientId);
+        }
+        return patient;
+    }
+
+    private static Cursor merged(State state, String fromId, long sequence) {
+        List<Cursor> sources = new ArrayList<>();
+        sources.add(state.memtable.cursor(fromId, sequence));
+        for (Memtable memtable : state.frozen) {
+            sources.add(memtable.cursor(fromId, Long.MAX_VALUE));
+        }
+        for (int i = state.segments.size() - 1; i >= 0; i--) {
+            sources.add(state.segments.get(i).cursor(fromId));
+        }
+        return new MergingCursor(sources);
+    }
+
+    private State acquire() {
+        while (true) {
+            State state = current;
+            if (state.tryRetain()) {
+                return state;
+            }
+        }
+    }
+
+    // Se llama con sequenceLock
+    private void install(State next) {
+        State previous = current;
+        current = next;
+        previous.release();
+    }
+
+    private void freezeIfFull(Memtable memtable) throws IOException {
+        if (memtable.bytes.get() < MEMTABLE_BYTES) {
+            return;
+        }
+        writeGate.writeLock().lock();
+        try {
+            if (current.memtable != memtable) {
+                return; // Otro escritor ya la congeló
+            }
+            memtable.sealedGeneration = wal.rotate();
+            synchronized (sequenceLock) {
+                State state = current;
+                List<Memtable> frozen = new ArrayList<>(state.frozen.size() + 1);
+                frozen.add(memtable);
+                frozen.addAll(state.frozen);
+                install(new State(new Memtable(), frozen, state.segments));
+            }
+        } finally {
+            writeGate.writeLock().unlock();
+        }
+        background.submit(this::flushFrozen);
+    }
+
+    // Solo en el hilo de fondo: es el único que cambia la lista de segmentos
+    private void flushFrozen() {
+        try {
+            while (!current.frozen.isEmpty()) {
+                flushOldest();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Las tablas siguen congeladas y en el log hasta que un reintento las vuelque
+            logger.severe("Error volcando pacientes a segmento, se reintenta en " + FLUSH_RETRY_MILLIS + " ms: " +
+                         e.getMessage());
+            if (flushRetryPending.compareAndSet(false, true)) {
+                try {
+                    background.schedule(() -> {
+                        flushRetryPending.set(false);
+                        flushFrozen();
+                    }, FLUSH_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException closing) {
+                    // Cerrando: la próxima apertura reproduce el log
+                }
+            }
+            return;
+        }
+        try {
+            compactIfNeeded();
+        } catch (IOException | RuntimeException e) {
+            logger.severe("Error compactando segmentos de pacientes: " + e.getMessage());
+        }
+    }
+
+    private void flushOldest() throws IOException {
+        List<Memtable> frozen = current.frozen;
+        Memtable oldest = frozen.get(frozen.size() - 1);
+        LsmSegment segment = writeSegment(oldest.cursor(null, Long.MAX_VALUE), oldest.entries.size(), false);
+        List<LsmSegment> segments = new ArrayList<>(current.segments);
+        if (segment != null) {
+            segments.add(segment);
+            publish(segments, List.of(segment));
+        }
+        synchronized (sequenceLock) {
+            State state = current;
+            List<Memtable> remaining = new ArrayList<>(state.frozen);
+            remaining.remove(oldest);
+            install(new State(state.memtable, remaining, segments));
+        }
+        wal.deleteThrough(oldest.sealedGeneration);
+        if (segment != null) {
+            logger.info("Tabla en memoria volcada a " + segment.getFile().getFileName() + " (" +
+                       segment.getRecords() + " registros)");
+        }
+    }
+
+    // Si el manifiesto no se puede escribir, los segmentos nuevos no cuentan y se borran
+    private void publish(List<LsmSegment> segments, List<LsmSegment> created) throws IOException {
+        try {
+            writeManifest(segments);
+        } catch (IOException | RuntimeException e) {
+            created.forEach(LsmSegment::discard);
+            throw e;
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        while (true) {
+            List<LsmSegment> segments = current.segments;
+            int count = segments.size();
+            if (count < COMPACTION_FANOUT) {
+                return;
+            }
+            int tier = tier(segments.get(count - 1));
+            int start = count - 1;
+            while (start > 0 && tier(segments.get(start - 1)) <= tier) {
+                start--;
+            }
+            if (count - start < COMPACTION_FANOUT) {
+                return;
+            }
+            List<LsmSegment> inputs = segments.subList(start, count);
+            List<Cursor> sources = new ArrayList<>();
+            long expected = 0;
+            for (int i = inputs.size() - 1; i >= 0; i--) {
+                sources.add(inputs.get(i).cursor(null));
+                expected += inputs.get(i).getRecords();
+            }
+            LsmSegment output = writeSegment(new MergingCursor(sources), expected, start == 0);
+            List<LsmSegment> next = new ArrayList<>(segments.subList(0, start));
+            if (output != null) {
+                next.add(output);
+            }
+            publish(next, output != null ? List.of(output) : List.of());
+            for (LsmSegment input : inputs) {
+                input.markObsolete();
+            }
+            synchronized (sequenceLock) {
+                State state = current;
+                install(new State(state.memtable, state.frozen, next));
+            }
+            logger.info("Compactados " + inputs.size() + " segmentos de pacientes" +
+                       (output != null ? " en " + output.getFile().getFileName() + " (" + output.getRecords() + " registros)" : ""));
+        }
+    }
+
+    private static int tier(LsmSegment segment) {
+        long ratio = Math.max(1, segment.getBytes() / MEMTABLE_BYTES);
+        return (int) (Math.log(ratio) / Math.log(COMPACTION_FANOUT));
+    }
+
+    /** Escribe las entradas del cursor en un segmento nuevo; null si no queda ninguna. */
+    private LsmSegment writeSegment(Cursor source, long expectedKeys, boolean dropDeletes) throws IOException {
+        Path target = directory.resolve(String.format("seg-%06d.sst", nextSegmentNumber++));
+        try (LsmSegment.Writer writer = new LsmSegment.Writer(target, expectedKeys, BLOOM_BITS_PER_KEY)) {
+            for (; source.valid(); source.next()) {
+                Patient value = source.value();
+                if (!dropDeletes || value != LsmSegment.TOMBSTONE) {
+                    writer.add(source.key(), value);
+                }
+            }
+            return writer.getRecords() > 0 ? writer.finish() : null;
+        }
+    }
+
+    private void writeManifest(List<LsmSegment> segments) throws IOException {
+        Path temp = directory.resolve(MANIFEST + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temp.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+            for (LsmSegment segment : segments) {
+                writer.write(segment.getFile().getFileName().toString());
+                writer.write('\n');
+            }
+            writer.flush();
+            output.getFD().sync();
+        }
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Segmentos de un volcado o compactación que no llegó al manifiesto
+    private void deleteUnlisted(List<LsmSegment> listed) throws IOException {
+        Set<Path> keep = new HashSet<>();
+        for (LsmSegment segment : listed) {
+            keep.add(segment.getFile().getFileName());
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "{seg-*.sst,*.tmp}")) {
+            for (Path file : stream) {
+                if (!keep.contains(file.getFileName())) {
+                    Files.deleteIfExists(file);
+                    nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(file.getFileName().toString()) + 1);
+                }
+            }
+        }
+    }
+
+    private static long segmentNumber(String name) {
+        try {
+            return Long.parseLong(name.substring("seg-".length(), name.indexOf('.')));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private LsmSegment importLegacyStore() throws IOException {
+        boolean hasLegacyData = Files.exists(legacyDirectory.resolve("patients.csv"));
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(legacyDirectory, "patients.*.log")) {
+            hasLegacyData |= logs.iterator().hasNext();
+        }
+        if (!hasLegacyData) {
+            return null;
+        }
+        CsvPatientStore legacy = new CsvPatientStore(legacyDirectory);
+        try {
+            legacy.open();
+            AtomicLong count = new AtomicLong();
+            legacy.scan(null, patient -> {
+                count.incrementAndGet();
+                return true;
+            });
+            Path target = directory.resolve(String.format("seg-%06d.sst", nextSegmentNumber++));
+            try (LsmSegment.Writer writer = new LsmSegment.Writer(target, count.get(), BLOOM_BITS_PER_KEY)) {
+                legacy.scan(null, patient -> {
+                    try {
+                        writer.add(patient.getPatientId(), patient);
+                        return true;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                LsmSegment segment = writer.getRecords() > 0 ? writer.finish() : null;
+                logger.info("Importados " + count.get() + " pacientes del almacén CSV");
+                return segment;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            legacy.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        wal.close();
+        synchronized (sequenceLock) {
+            current.release();
+        }
+    }
+
+    /**
+     * Tablas y segmentos visibles en un momento. Cada estado retiene sus segmentos;
+     * el almacén tiene una referencia al actual y cada lectura o snapshot toma otra.
+     */
+    private static class State {
+        final Memtable memtable;
+        final List<Memtable> frozen; // De la más reciente a la más antigua
+        final List<LsmSegment> segments; // Del más antiguo al más reciente
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        State(Memtable memtable, List<Memtable> frozen, List<LsmSegment> segments) {
+            this.memtable = memtable;
+            this.frozen = frozen;
+            this.segments = segments;
+            segments.forEach(LsmSegment::retain);
+        }
+
+        boolean tryRetain() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                segments.forEach(LsmSegment::release);
+            }
+        }
+    }
+
+    /** Versiones por ID, de la más reciente a la más antigua. */
+    private static class Memtable {
+        final ConcurrentSkipListMap<MemKey, Patient> entries = new ConcurrentSkipListMap<>();
+        final AtomicLong bytes = new AtomicLong();
+        // Última generación del log con entradas de esta tabla; se fija al congelarla
+        volatile long sealedGeneration;
+
+        Patient get(String patientId, long sequence) {
+            Map.Entry<MemKey, Patient> entry = entries.ceilingEntry(new MemKey(patientId, sequence));
+            return entry != null && entry.getKey().patientId.equals(patientId) ? entry.getValue() : null;
+        }
+
+        Cursor cursor(String fromId, long sequence) {
+            Iterator<Map.Entry<MemKey, Patient>> iterator =
+                (fromId == null ? entries : entries.tailMap(new MemKey(fromId, Long.MAX_VALUE))).entrySet().iterator();
+            return new Cursor() {
+                private String key;
+                private Patient value;
+
+                {
+                    next();
+                }
+
+                @Override
+                public boolean valid() {
+                    return key != null;
+                }
+
+                @Override
+                public String key() {
+                    return key;
+                }
+
+                @Override
+                public Patient value() {
+                    return value;
+                }
+
+                // La primera entrada visible de cada ID es la más reciente
+                @Override
+                public void next() {
+                    String previous = key;
+                    key = null;
+                    while (iterator.hasNext()) {
+                        Map.Entry<MemKey, Patient> entry = iterator.next();
+                        MemKey memKey = entry.getKey();
+                        if (memKey.sequence <= sequence && !memKey.patientId.equals(previous)) {
+                            key = memKey.patientId;
+                            value = entry.getValue();
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+    }
+
+    private static class MemKey implements Comparable<MemKey> {
+        final String patientId;
+        final long sequence;
+
+        MemKey(String patientId, long sequence) {
+            this.patientId = patientId;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(MemKey other) {
+            int byId = PatientStore.compareIds(patientId, other.patientId);
+            return byId != 0 ? byId : Long.compare(other.sequence, sequence);
+        }
+    }
+
+    /** Une cursores ordenados; ante la misma clave gana el que va antes en la lista. */
+    private static class MergingCursor implements Cursor {
+        private final List<Cursor> sources;
+        private final PriorityQueue<Integer> heads;
+        private String key;
+        private Patient value;
+
+        MergingCursor(List<Cursor> sources) {
+            this.sources = sources;
+            this.heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+                int byKey = PatientStore.compareIds(sources.get(a).key(), sources.get(b).key());
+                return byKey != 0 ? byKey : Integer.compare(a, b);
+            });
+            for (int i = 0; i < sources.size(); i++) {
+                if (sources.get(i).valid()) {
+                    heads.add(i);
+                }
+            }
+            next();
+        }
+
+        @Override
+        public boolean valid() {
+            return key != null;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Override
+        public Patient value() {
+            return value;
+        }
+
+        @Override
+        public void next() {
+            if (heads.isEmpty()) {
+                key = null;
+                return;
+            }
+            int winner = heads.poll();
+            Cursor cursor = sources.get(winner);
+            key = cursor.key();
+            value = cursor.value();
+            advance(winner);
+            while (!heads.isEmpty() && sources.get(heads.peek()).key().equals(key)) {
+                advance(heads.poll());
+            }
+        }
+
+        private void advance(int source) {
+            Cursor cursor = sources.get(source);
+            cursor.next();
+            if (cursor.valid()) {
+                heads.add(source);
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Segmento inmutable de {@link LsmPatientStore}: pacientes ordenados por ID y, al
+ * final, un índice disperso con la clave de cada bloque, un filtro de Bloom y un pie
+ * fijo.
+ *
+ * <pre>
+ * registros: [long. clave int][clave UTF-8][long. valor int, -1 si es borrado][{@link PatientCodec}]
+ * índice:    [long. clave int][clave UTF-8][posición long]   uno cada {@value #INDEX_INTERVAL} registros
+ * filtro:    {@link BloomFilter}
+ * pie:       [posición índice long][entradas índice int][posición filtro long][registros long][magic int]
+ * </pre>
+ *
+ * Una búsqueda consulta el filtro, localiza el bloque en el índice, que está en
+ * memoria, y lee solo ese bloque. El segmento se cierra cuando ya no lo usa ningún
+ * estado del almacén; si una compactación lo reemplazó, entonces se borra.
+ */
+public class LsmSegment {
+    private static final Logger logger = Logger.getLogger(LsmSegment.class.getName());
+    /** Valor de un borrado; se compara por identidad. */
+    static final Patient TOMBSTONE = new Patient("", "", "", "", "", 0, "", "", null, 0, "", true, 0);
+    private static final int MAGIC = 0x4c534d31;
+    private static final int INDEX_INTERVAL = 16;
+    private static final int FOOTER_BYTES = 8 + 4 + 8 + 8 + 4;
+    private static final int SCAN_READ_BYTES = 64 << 10;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    // Una posición más que claves: la última es el final de los registros
+    private final long[] indexOffsets;
+    private final BloomFilter bloom;
+    private final long records;
+    private final long bytes;
+    private final AtomicInteger references = new AtomicInteger();
+    private volatile boolean obsolete;
+
+    private LsmSegment(Path file, FileChannel channel, String[] indexKeys, long[] indexOffsets,
+                       BloomFilter bloom, long records, long bytes) {
+        this.file = file;
+        this.channel = channel;
+        this.indexKeys = indexKeys;
+        this.indexOffsets = indexOffsets;
+        this.bloom = bloom;
+        this.records = records;
+        this.bytes = bytes;
+    }
+
+    public static LsmSegment open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < FOOTER_BYTES) {
+                throw new IOException("Segmento truncado: " + file);
+            }
+            ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+            long indexOffset = footer.getLong();
+            int indexCount = footer.getInt();
+            long bloomOffset = footer.getLong();
+            long records = footer.getLong();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Segmento inválido: " + file);
+            }
+
+            ByteBuffer index = read(channel, indexOffset, (int) (bloomOffset - indexOffset));
+            String[] keys = new String[indexCount];
+            long[] offsets = new long[indexCount + 1];
+            for (int i = 0; i < indexCount; i++) {
+                byte[] key = new byte[index.getInt()];
+                index.get(key);
+                keys[i] = new String(key, StandardCharsets.UTF_8);
+                offsets[i] = index.getLong();
+            }
+            offsets[indexCount] = indexOffset;
+            BloomFilter bloom = BloomFilter.readFrom(read(channel, bloomOffset, (int) (size - FOOTER_BYTES - bloomOffset)));
+            return new LsmSegment(file, channel, keys, offsets, bloom, records, size);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** El paciente, {@link #TOMBSTONE} si se borró en este segmento, o null si no está. */
+    public Patient get(String patientId) {
+        if (!bloom.mightContain(patientId)) {
+            return null;
+        }
+        int block = floorBlock(patientId);
+        if (block < 0) {
+            return null;
+        }
+        byte[] key = patientId.getBytes(StandardCharsets.UTF_8);
+        try {
+            ByteBuffer records = read(channel, indexOffsets[block], (int) (indexOffsets[block + 1] - indexOffsets[block]));
+            while (records.hasRemaining()) {
+                int keyLength = records.getInt();
+                int keyStart = records.position();
+                records.position(keyStart + keyLength);
+                int valueLength = records.getInt();
+                if (Arrays.equals(records.array(), keyStart, keyStart + keyLength, key, 0, key.length)) {
+                    return valueLength < 0 ? TOMBSTONE : PatientCodec.decode(records);
+                }
+                records.position(records.position() + Math.max(0, valueLength));
+            }
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error leyendo " + file, e);
+        }
+    }
+
+    // Último bloque cuya primera clave es <= patientId
+    private int floorBlock(String patientId) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (PatientStore.compareIds(indexKeys[mid], patientId) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /** Recorre los registros desde la primera clave >= {@code fromId}; null para empezar por el principio. */
+    public LsmPatientStore.Cursor cursor(String fromId) {
+        int block = fromId == null ? 0 : Math.max(0, floorBlock(fromId));
+        SegmentCursor cursor = new SegmentCursor(block);
+        while (fromId != null && cursor.valid() && PatientStore.compareIds(cursor.key(), fromId) < 0) {
+            cursor.next();
+        }
+        return cursor;
+    }
+
+    private class SegmentCursor implements LsmPatientStore.Cursor {
+        private long position;
+        private ByteBuffer buffer = ByteBuffer.allocate(0);
+        private String key;
+        private int valueStart;
+        private int valueLength;
+        private Patient value;
+
+        SegmentCursor(int block) {
+            this.position = indexOffsets[block];
+            next();
+        }
+
+        @Override
+        public boolean valid() {
+            return key != null;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        // Solo se decodifica el valor que el llamador pide
+        @Override
+        public Patient value() {
+            if (value == null) {
+                value = valueLength < 0 ? TOMBSTONE
+                      : PatientCodec.decode(buffer.duplicate().position(valueStart));
+            }
+            return value;
+        }
+
+        @Override
+        public void next() {
+            value = null;
+            if (!buffer.hasRemaining() && !fill()) {
+                key = null;
+                return;
+            }
+            int keyLength = buffer.getInt();
+            key = new String(buffer.array(), buffer.position(), keyLength, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + keyLength);
+            valueLength = buffer.getInt();
+            valueStart = buffer.position();
+            buffer.position(valueStart + Math.max(0, valueLength));
+        }
+
+        // Lee bloques enteros hasta juntar al menos SCAN_READ_BYTES
+        private boolean fill() {
+            long end = indexOffsets[indexOffsets.length - 1];
+            if (position >= end) {
+                return false;
+            }
+            int block = Arrays.binarySearch(indexOffsets, position);
+            int last = block + 1;
+            while (last < indexOffsets.length - 1 && indexOffsets[last] - position < SCAN_READ_BYTES) {
+                last++;
+            }
+            try {
+                buffer = read(channel, position, (int) (indexOffsets[last] - position));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error leyendo " + file, e);
+            }
+            position = indexOffsets[last];
+            return buffer.hasRemaining();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Fin inesperado del segmento");
+            }
+        }
+        return buffer.flip();
+    }
+
+    public long getRecords() { return records; }
+    public long getBytes() { return bytes; }
+    public Path getFile() { return file; }
+
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+                if (obsolete) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                logger.warning("Error cerrando segmento " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Lo reemplazó una compactación: el archivo se borra al soltar la última referencia. */
+    void markObsolete() {
+        obsolete = true;
+    }
+
+    /** Cierra y borra un segmento que ningún estado llegó a retener. */
+    void discard() {
+        markObsolete();
+        retain();
+        release();
+    }
+
+    /** Escribe un segmento nuevo a partir de claves en el orden de {@link PatientStore#compareIds}. */
+    static class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final BloomFilter bloom;
+        private final List<String> blockKeys = new ArrayList<>();
+        private final List<Long> blockOffsets = new ArrayList<>();
+        private long offset;
+        private long records;
+        private boolean finished;
+
+        Writer(Path target, long expectedKeys, int bloomBitsPerKey) throws IOException {
+            this.target = target;
+            this.temp = Paths.get(target + ".tmp");
+            this.file = new FileOutputStream(temp.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+            this.bloom = new BloomFilter(expectedKeys, bloomBitsPerKey);
+        }
+
+        void add(String patientId, Patient value) throws IOException {
+            byte[] key = patientId.getBytes(StandardCharsets.UTF_8);
+            if (records % INDEX_INTERVAL == 0) {
+                blockKeys.add(patientId);
+                blockOffsets.add(offset);
+            }
+            out.writeInt(key.length);
+            out.write(key);
+            offset += 8 + key.length;
+            if (value == TOMBSTONE) {
+                out.writeInt(-1);
+            } else {
+                byte[] encoded = PatientCodec.encode(value);
+                out.writeInt(encoded.length);
+                out.write(encoded);
+                offset += encoded.length;
+            }
+            bloom.add(patientId);
+            records++;
+        }
+
+        long getRecords() {
+            return records;
+        }
+
+        /** Escribe índice, filtro y pie, lo lleva a disco y lo abre para lectura. */
+        LsmSegment finish() throws IOException {
+            long indexOffset = offset;
+            for (int i = 0; i < blockKeys.size(); i++) {
+                byte[] key = blockKeys.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeLong(blockOffsets.get(i));
+                offset += 4 + key.length + 8;
+            }
+            long bloomOffset = offset;
+            ByteBuffer filter = ByteBuffer.allocate(bloom.serializedSize());
+            bloom.writeTo(filter);
+            out.write(filter.array());
+            out.writeLong(indexOffset);
+            out.writeInt(blockKeys.size());
+            out.writeLong(bloomOffset);
+            out.writeLong(records);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            finished = true;
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            return open(target);
+        }
+
+        /** Sin {@link #finish}, descarta el archivo a medio escribir. */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.*;
+
+/**
+ * Ocurrencias de un marcador de enfermedad dentro de la secuencia de un paciente.
+ */
+public class MarkerMatch {
+    private final int ordinal;
+    private final DiseaseDetector.Disease disease;
+    private final SortedSet<Integer> offsets;
+    private double bestSimilarity;
+    private int bestEditDistance = -1;
+    private int bestEditEnd = -1;
+    // Solo en copias recortadas: ocurrencias totales aunque se guarden menos desplazamientos
+    private int occurrenceCount = -1;
+
+    public MarkerMatch(int ordinal, DiseaseDetector.Disease disease) {
+        this.ordinal = ordinal;
+        this.disease = disease;
+        this.offsets = new TreeSet<>();
+    }
+
+    MarkerMatch(int ordinal, DiseaseDetector.Disease disease, SortedSet<Integer> offsets, int occurrenceCount,
+                double bestSimilarity, int bestEditDistance, int bestEditEnd) {
+        this.ordinal = ordinal;
+        this.disease = disease;
+        this.offsets = offsets;
+        this.occurrenceCount = occurrenceCount;
+        this.bestSimilarity = bestSimilarity;
+        this.bestEditDistance = bestEditDistance;
+        this.bestEditEnd = bestEditEnd;
+    }
+
+    /** Copia con solo los primeros desplazamientos, que conserva el total de ocurrencias. */
+    MarkerMatch truncated(int maxOffsets) {
+        SortedSet<Integer> kept = new TreeSet<>();
+        for (int offset : offsets) {
+            if (kept.size() == maxOffsets) {
+                break;
+            }
+            kept.add(offset);
+        }
+        return new MarkerMatch(ordinal, disease, kept, getOccurrenceCount(), bestSimilarity, bestEditDistance, bestEditEnd);
+    }
+
+    void addOccurrence(int offset, double similarity) {
+        offsets.add(offset);
+        bestSimilarity = Math.max(bestSimilarity, similarity);
+    }
+
+    // Ocurrencia confirmada sin similitud exacta; solo vale si ya hay una coincidencia perfecta
+    void addOccurrence(int offset) {
+        offsets.add(offset);
+    }
+
+    // En modo EDIT el desplazamiento es la posición final de la ocurrencia
+    void addEditOccurrence(int endOffset, int distance, int markerLength) {
+        addOccurrence(endOffset, markerLength == 0 ? 0.0 : 1.0 - (double) distance / markerLength);
+        if (bestEditDistance < 0 || distance < bestEditDistance
+                || (distance == bestEditDistance && endOffset < bestEditEnd)) {
+            bestEditDistance = distance;
+            bestEditEnd = endOffset;
+        }
+    }
+
+    void merge(MarkerMatch other) {
+        merge(other, 0);
+    }
+
+    // Une ocurrencias buscadas en una ventana que empieza en {@code shift} de la secuencia
+    void merge(MarkerMatch other, int shift) {
+        for (int offset : other.offsets) {
+            offsets.add(offset + shift);
+        }
+        bestSimilarity = Math.max(bestSimilarity, other.bestSimilarity);
+        if (other.bestEditDistance >= 0) {
+            int otherEnd = other.bestEditEnd + shift;
+            if (bestEditDistance < 0 || other.bestEditDistance < bestEditDistance
+                    || (other.bestEditDistance == bestEditDistance && otherEnd < bestEditEnd)) {
+                bestEditDistance = other.bestEditDistance;
+                bestEditEnd = otherEnd;
+            }
+        }
+    }
+
+    public int getOrdinal() { return ordinal; }
+    public DiseaseDetector.Disease getDisease() { return disease; }
+    public SortedSet<Integer> getOffsets() { return offsets; }
+    public int getOccurrenceCount() { return occurrenceCount >= 0 ? occurrenceCount : offsets.size(); }
+    public double getBestSimilarity() { return bestSimilarity; }
+    public int getBestEditDistance() { return bestEditDistance; }
+    public int getBestEditEnd() { return bestEditEnd; }
+}
@@ -0,0 +1,273 @@
+import java.util.*;
+
+/**
+ * Búsqueda de marcadores en cualquier posición de la secuencia del paciente por
+ * semilla y extensión: cada k-mer compartido con el índice fija una diagonal
+ * (desplazamiento del marcador dentro del paciente) y la diagonal se verifica una
+ * sola vez comparando el marcador completo con {@link PackedSequence}.
+ *
+ * <p>Las semillas no pueden perder ocurrencias. Si el presupuesto de diferencias de
+ * un marcador permite romper todos sus k-mers, se siembra por palomar con e + 1
+ * trozos disjuntos ({@link KmerIndex#pieces}); si los trozos quedan demasiado
+ * cortos, o el modo ALIGN admite inserciones que los rompen, se recorren todas
+ * las diagonales. En ALIGN ese recorrido pasa antes por {@link AlignmentFilter}, que
+ * tolera los huecos, y solo alinea las diagonales que pueden llegar al umbral.
+ */
+public class MarkerSearch {
+    static final double IDENTITY_THRESHOLD = 0.85;
+    // Cambia cuando la búsqueda puede dar otro resultado con el mismo catálogo, para no reutilizar la caché
+    static final int REVISION = 3;
+
+    // Con trozos más cortos casi cualquier posición es semilla: sale igual verificar todas
+    private static final int MIN_PIECE_BASES = 4;
+    // Diagonales que descarta de una vez una sola cota de ALIGN sobre la ventana que las cubre
+    private static final int FILTER_BLOCK = 16;
+
+    private final KmerIndex index;
+    private final BitSet pieceSeeded = new BitSet();
+    private final BitSet fullScan = new BitSet();
+    private final List<KmerIndex> pieceIndexes = new ArrayList<>();
+    private final AlignmentFilter[] alignmentFilters;
+
+    public MarkerSearch(KmerIndex index) {
+        this.index = index;
+        this.alignmentFilters = new AlignmentFilter[index.getDiseaseCount()];
+
+        Map<Integer, int[]> stridesByLength = new TreeMap<>();
+        for (int ordinal = 0; ordinal < index.getDiseaseCount(); ordinal++) {
+            DiseaseDetector.Disease disease = index.getDisease(ordinal);
+            int length = disease.getSequence().length();
+            if (disease.getMode() == DetectionMode.ALIGN) {
+                alignmentFilters[ordinal] = new AlignmentFilter(disease.getSequence());
+            }
+            if (disease.getMode() == DetectionMode.EDIT || length < index.getK() || index.isSeedable(ordinal)) {
+                continue;
+            }
+            int stride = length / (pieceErrors(disease) + 1);
+            if (stride < MIN_PIECE_BASES) {
+                fullScan.set(ordinal);
+                continue;
+            }
+            pieceSeeded.set(ordinal);
+            stridesByLength.computeIfAbsent(Math.min(stride, index.getK()), l -> new int[index.getDiseaseCount()])[ordinal] = stride;
+        }
+        stridesByLength.forEach((pieceLength, strides) ->
+            pieceIndexes.add(KmerIndex.pieces(index.getDiseases(), pieceLength, strides)));
+    }
+
+    /**
+     * Roturas de trozo que admite una ocurrencia: las diferencias del umbral y, en
+     * ALIGN, además las inserciones, que no cuestan bases del marcador pero parten el
+     * trozo; la banda limita su exceso sobre las deleciones.
+     */
+    private static int pieceErrors(DiseaseDetector.Disease disease) {
+        int errors = disease.getAllowedErrors();
+        if (disease.getMode() == DetectionMode.ALIGN) {
+            return 2 * errors + 2 * Math.max(0, disease.getModeParameter());
+        }
+        return errors;
+    }
+
+    /**
+     * Máximo de diferencias con las que un marcador de {@code length} bases sigue
+     * alcanzando el umbral, calculado con la misma comparación en coma flotante que
+     * la similitud para no cambiar ningún caso límite.
+     */
+    static int maxMismatches(int length) {
+        int mismatches = (int) Math.floor(length * (1 - IDENTITY_THRESHOLD));
+        while (mismatches > 0 && (double) (length - mismatches) / length < IDENTITY_THRESHOLD) {
+            mismatches--;
+        }
+        while (mismatches < length && (double) (length - mismatches - 1) / length >= IDENTITY_THRESHOLD) {
+            mismatches++;
+        }
+        return mismatches;
+    }
+
+    /** Devuelve las enfermedades encontradas, en orden de catálogo. */
+    public List<MarkerMatch> search(PackedSequence patientSequence, CandidateSet candidates) {
+        return search(patientSequence, candidates, 0, patientSequence.length());
+    }
+
+    /**
+     * Busca las ocurrencias que empiezan en [from, to). Los tramos contiguos pueden
+     * buscarse por separado y unirse con {@link MarkerMatch#merge}: cada ocurrencia
+     * pertenece solo al tramo donde empieza.
+     */
+    public List<MarkerMatch> search(PackedSequence patientSequence, CandidateSet candidates, int from, int to) {
+        Map<Integer, MarkerMatch> matches = new TreeMap<>();
+        int[] lastDiagonal = new int[index.getDiseaseCount()];
+        Arrays.fill(lastDiagonal, -1);
+
+        BitSet ordinals = (BitSet) candidates.getOrdinals().clone();
+        ordinals.andNot(pieceSeeded);
+        ordinals.andNot(fullScan);
+        scanSeeds(index, patientSequence, ordinals, from, to, true, lastDiagonal, matches);
+        for (KmerIndex pieces : pieceIndexes) {
+            BitSet pieceOrdinals = (BitSet) candidates.getOrdinals().clone();
+            pieceOrdinals.and(pieceSeeded);
+            if (!pieceOrdinals.isEmpty()) {
+                scanSeeds(pieces, patientSequence, pieceOrdinals, from, to, false, lastDiagonal, matches);
+            }
+        }
+
+        // Las candidatas más probables se evalúan primero; el resultado sigue en orden de catálogo
+        for (int ordinal : candidates.getOrder()) {
+            DiseaseDetector.Disease disease = index.getDisease(ordinal);
+            PackedSequence marker = disease.getSequence();
+            if (disease.getMode() == DetectionMode.EDIT) {
+                scanEdits(patientSequence, ordinal, from, to, matches);
+            } else if (marker.length() > patientSequence.length()) {
+                if (from == 0) {
+                    verifyPrefix(patientSequence, ordinal, matches);
+                }
+            } else if (marker.length() < index.getK() || fullScan.get(ordinal)) {
+                // Sin semillas fiables: se desliza el marcador, una palabra por posición
+                int slack = disease.getMode() == DetectionMode.ALIGN ? disease.getModeParameter() : 0;
+                int last = Math.min(to, patientSequence.length() - marker.length() + 1 + slack);
+                if (disease.getMode() == DetectionMode.ALIGN) {
+                    scanAlignments(patientSequence, ordinal, from, last, matches);
+                } else {
+                    for (int diagonal = from; diagonal < last; diagonal++) {
+                        verify(patientSequence, ordinal, diagonal, matches);
+                    }
+                }
+            } else if (from == 0 && lastDiagonal[ordinal] != 0) {
+                // La posición 0 se compara siempre, aunque no tenga un k-mer exacto
+                verify(patientSequence, ordinal, 0, matches);
+            }
+        }
+
+        return new ArrayList<>(matches.values());
+    }
+
+    /**
+     * Verifica las diagonales que fijan las semillas de {@code seeds}. Con k-mers
+     * solapados basta el extremo izquierdo de cada tramo exacto; con trozos de palomar
+     * no, porque el trozo anterior puede fallar aunque coincida la base previa.
+     */
+    private void scanSeeds(KmerIndex seeds, PackedSequence patientSequence, BitSet ordinals, int from, int to,
+                           boolean overlapping, int[] lastDiagonal, Map<Integer, MarkerMatch> matches) {
+        int seedEnd = Math.min(patientSequence.length(), to + index.getMaxMarkerLength()) - seeds.getK() + 1;
+        seeds.scanSeeds(patientSequence, ordinals, from, Math.max(from, seedEnd), (ordinal, markerOffset, sequenceOffset) -> {
+            DiseaseDetector.Disease disease = index.getDisease(ordinal);
+            if (disease.getMode() == DetectionMode.EDIT) {
+                return;
+            }
+            PackedSequence marker = disease.getSequence();
+            int diagonal = sequenceOffset - markerOffset;
+            // En alineamiento el marcador puede salirse hasta el ancho de banda por la derecha
+            int slack = disease.getMode() == DetectionMode.ALIGN ? disease.getModeParameter() : 0;
+            if (diagonal < from || diagonal >= to || diagonal + marker.length() > patientSequence.length() + slack
+                    || diagonal == lastDiagonal[ordinal]) {
+                return;
+            }
+            // Solo el extremo izquierdo de cada tramo exacto verifica la diagonal
+            if (overlapping && markerOffset > 0
+                    && patientSequence.codeAt(sequenceOffset - 1) >= 0
+                    && patientSequence.codeAt(sequenceOffset - 1) == marker.codeAt(markerOffset - 1)) {
+                return;
+            }
+            lastDiagonal[ordinal] = diagonal;
+            verify(patientSequence, ordinal, diagonal, matches);
+        });
+    }
+
+    private void verify(PackedSequence patientSequence, int ordinal, int diagonal, Map<Integer, MarkerMatch> matches) {
+        DiseaseDetector.Disease disease = index.getDisease(ordinal);
+        PackedSequence marker = disease.getSequence();
+        if (marker.length() == 0) {
+            return;
+        }
+        if (disease.getMode() == DetectionMode.ALIGN) {
+            verifyAlignment(patientSequence, ordinal, diagonal, matches);
+            return;
+        }
+
+        int length = marker.length();
+        int budget = maxMismatches(length);
+        MarkerMatch existing = matches.get(ordinal);
+        if (existing != null && existing.getBestSimilarity() >= 1.0) {
+            // La mejor similitud ya no puede subir: basta saber si la ocurrencia cuenta
+            if (patientSequence.matchesWithin(diagonal, marker, 0, length, budget)) {
+                existing.addOccurrence(diagonal);
+            }
+            return;
+        }
+
+        int mismatches = patientSequence.countMismatchesBounded(diagonal, marker, 0, length, budget);
+        if (mismatches <= budget) {
+            matches.computeIfAbsent(ordinal, o -> new MarkerMatch(o, disease))
+                   .addOccurrence(diagonal, (double) (length - mismatches) / length);
+        }
+    }
+
+    /**
+     * Modo ALIGN: alineamiento con huecos en la banda de la diagonal. La similitud es
+     * la fracción de bases del marcador que coinciden en el mejor alineamiento, así
+     * que una inserción o deleción aislada apenas la reduce.
+     */
+    private void verifyAlignment(PackedSequence patientSequence, int ordinal, int diagonal, Map<Integer, MarkerMatch> matches) {
+        DiseaseDetector.Disease disease = index.getDisease(ordinal);
+        PackedSequence marker = disease.getSequence();
+
+        BandedAligner.Result alignment = BandedAligner.align(patientSequence, diagonal, marker, disease.getModeParameter());
+        if (alignment == null) {
+            return;
+        }
+        double similarity = (double) alignment.matches / marker.length();
+        if (similarity >= IDENTITY_THRESHOLD) {
+            matches.computeIfAbsent(ordinal, o -> new MarkerMatch(o, disease)).addOccurrence(alignment.start, similarity);
+        }
+    }
+
+    /**
+     * Recorre las diagonales [from, to) de un marcador ALIGN sin semillas. Ninguna
+     * diagonal cuya ventana comparta menos bases que el umbral con el marcador puede
+     * dar una ocurrencia; la cota se comprueba primero para un bloque de diagonales y
+     * después para cada una, y solo las que la superan se alinean.
+     */
+    private void scanAlignments(PackedSequence patientSequence, int ordinal, int from, int to,
+                                Map<Integer, MarkerMatch> matches) {
+        DiseaseDetector.Disease disease = index.getDisease(ordinal);
+        AlignmentFilter filter = alignmentFilters[ordinal];
+        int length = disease.getSequence().length();
+        int band = Math.max(0, disease.getModeParameter());
+        int needed = length - maxMismatches(length);
+        for (int block = from; block < to; block += FILTER_BLOCK) {
+            int blockEnd = Math.min(to, block + FILTER_BLOCK);
+            if (filter.commonBases(patientSequence, block - band, blockEnd - 1 + length + band) < needed) {
+                continue;
+            }
+            for (int diagonal = block; diagonal < blockEnd; diagonal++) {
+                if (filter.commonBases(patientSequence, diagonal - band, diagonal + length + band) >= needed) {
+                    verify(patientSequence, ordinal, diagonal, matches);
+                }
+            }
+        }
+    }
+
+    // Modo EDIT: Myers sobre todo el tramo, sin semillas
+    private void scanEdits(PackedSequence patientSequence, int ordinal, int from, int to, Map<Integer, MarkerMatch> matches) {
+        DiseaseDetector.Disease disease = index.getDisease(ordinal);
+        int markerLength = disease.getSequence().length();
+        new MyersMatcher(disease.getSequence()).scan(patientSequence, from, to, disease.getAllowedErrors(), (end, distance) ->
+            matches.computeIfAbsent(ordinal, o -> new MarkerMatch(o, disease)).addEditOccurrence(end, distance, markerLength));
+    }
+
+    // Comparación desde la posición 0 sobre la longitud del paciente, como antes
+    private void verifyPrefix(PackedSequence patientSequence, int ordinal, Map<Integer, MarkerMatch> matches) {
+        DiseaseDetector.Disease disease = index.getDisease(ordinal);
+        int length = patientSequence.length();
+        if (length == 0) {
+            return;
+        }
+
+        int budget = maxMismatches(length);
+        int mismatches = patientSequence.countMismatchesBounded(0, disease.getSequence(), 0, length, budget);
+        if (mismatches <= budget) {
+            matches.computeIfAbsent(ordinal, o -> new MarkerMatch(o, disease))
+                   .addOccurrence(0, (double) (length - mismatches) / length);
+        }
+    }
+}
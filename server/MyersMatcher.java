@@ -0,0 +1,109 @@
+/**
+ * Búsqueda aproximada de Myers por vectores de bits: para cada posición del paciente
+ * obtiene la distancia de edición mínima entre el marcador y alguna subcadena que
+ * termina ahí. Un marcador de hasta 64 bases cabe en un long; los más largos se
+ * reparten en bloques de 64 con acarreo horizontal entre bloques (Hyyrö).
+ */
+final class MyersMatcher {
+    interface HitConsumer {
+        void hit(int endOffset, int distance);
+    }
+
+    private final int length;
+    private final int blocks;
+    private final long[][] peq;
+    private final long lastBit;
+
+    MyersMatcher(PackedSequence marker) {
+        this.length = marker.length();
+        this.blocks = Math.max(1, (length + 63) >>> 6);
+        this.peq = new long[4][blocks];
+        for (int i = 0; i < length; i++) {
+            int code = marker.codeAt(i);
+            // Una base ambigua del marcador no coincide con nada
+            if (code >= 0) {
+                peq[code][i >>> 6] |= 1L << (i & 63);
+            }
+        }
+        this.lastBit = 1L << ((length - 1) & 63);
+    }
+
+    /**
+     * Recorre el paciente y notifica cada tramo de posiciones finales consecutivas con
+     * distancia <= maxEdits una sola vez, con su primera posición de distancia mínima.
+     * Solo se notifican los tramos que empiezan en [from, to); el recorrido arranca
+     * m + maxEdits bases antes para que las distancias ya sean exactas en {@code from}
+     * y sigue después de {@code to} hasta cerrar el último tramo.
+     */
+    void scan(PackedSequence patient, int from, int to, int maxEdits, HitConsumer consumer) {
+        if (length == 0) {
+            return;
+        }
+
+        long[] pv = new long[blocks];
+        long[] mv = new long[blocks];
+        java.util.Arrays.fill(pv, -1L);
+        int score = length;
+
+        int runStart = -1;
+        int runBest = Integer.MAX_VALUE;
+        int runBestEnd = -1;
+
+        int n = patient.length();
+        for (int j = Math.max(0, from - length - maxEdits); j < n; j++) {
+            int code = patient.codeAt(j);
+            int carry = 0;
+            for (int b = 0; b < blocks; b++) {
+                long eq = code >= 0 ? peq[code][b] : 0L;
+                long p = pv[b];
+                long m = mv[b];
+                long highBit = b == blocks - 1 ? lastBit : Long.MIN_VALUE;
+
+                long xv = eq | m;
+                if (carry < 0) {
+                    eq |= 1L;
+                }
+                long xh = (((eq & p) + p) ^ p) | eq;
+                long ph = m | ~(xh | p);
+                long mh = p & xh;
+
+                int out = (ph & highBit) != 0 ? 1 : (mh & highBit) != 0 ? -1 : 0;
+                ph <<= 1;
+                mh <<= 1;
+                if (carry < 0) {
+                    mh |= 1L;
+                } else if (carry > 0) {
+                    ph |= 1L;
+                }
+                pv[b] = mh | ~(xv | ph);
+                mv[b] = ph & xv;
+                carry = out;
+            }
+            score += carry;
+
+            if (score <= maxEdits) {
+                if (runStart < 0) {
+                    runStart = j;
+                    runBest = Integer.MAX_VALUE;
+                }
+                if (score < runBest) {
+                    runBest = score;
+                    runBestEnd = j;
+                }
+            } else if (runStart >= 0) {
+                if (runStart >= from && runStart < to) {
+                    consumer.hit(runBestEnd, runBest);
+                }
+                runStart = -1;
+            }
+
+            if (runStart < 0 && j >= to - 1) {
+                return;
+            }
+        }
+
+        if (runStart >= from && runStart < to) {
+            consumer.hit(runBestEnd, runBest);
+        }
+    }
+}
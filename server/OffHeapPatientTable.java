@@ -0,0 +1,358 @@
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * Tabla de pacientes fuera del heap. Cada paciente es un registro
+ * {@link PatientCodec} precedido de su longitud, añadido al final de bloques
+ * {@link ByteBuffer#allocateDirect} de {@code genomic.offheap.slabBytes}; un registro
+ * escrito no se modifica nunca, así que un cambio añade otro y deja el viejo como
+ * hueco. El índice es una tabla hash de direccionamiento abierto sobre dos
+ * {@code long[]}: la parte numérica del ID ({@code P000123} → 123) y la posición
+ * del registro (bloque y desplazamiento).
+ *
+ * <p>{@link #get} devuelve una vista que lee cada campo del bloque al pedirlo, así
+ * que un paciente ocupa en el heap solo su entrada del índice más lo que el
+ * llamador conserve. Cuando los huecos superan a los datos vivos se copian los
+ * registros vivos a bloques nuevos; los viejos los libera el GC cuando ya no los
+ * usa ninguna vista ni snapshot.
+ *
+ * <p>Los IDs se recorren en orden numérico, que coincide con el de texto mientras
+ * tengan seis cifras.
+ */
+public class OffHeapPatientTable implements PatientTable {
+    private static final Logger logger = Logger.getLogger(OffHeapPatientTable.class.getName());
+    private static final int SLAB_BYTES = Integer.getInteger("genomic.offheap.slabBytes", 64 << 20);
+
+    // Las lecturas son optimistas: se valida el sello y solo se bloquea si hubo una escritura
+    private final StampedLock lock = new StampedLock();
+    private Index index;
+    private ByteBuffer[] slabs;
+    private int slabPosition;
+    private long liveBytes;
+    private long deadBytes;
+
+    public OffHeapPatientTable() {
+        this(new Index(1024), new ByteBuffer[0]);
+    }
+
+    private OffHeapPatientTable(Index index, ByteBuffer[] slabs) {
+        this.index = index;
+        this.slabs = slabs;
+    }
+
+    @Override
+    public Patient get(String patientId) {
+        long key = key(patientId);
+        if (key < 0) {
+            return null;
+        }
+        long stamp = lock.tryOptimisticRead();
+        long location = index.find(key);
+        ByteBuffer[] current = slabs;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                location = index.find(key);
+                current = slabs;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return location < 0 ? null : view(current, location);
+    }
+
+    @Override
+    public void put(Patient patient) {
+        long key = key(patient.getPatientId());
+        if (key < 0) {
+            throw new IllegalArgumentException("ID de paciente no numérico: " + patient.getPatientId());
+        }
+        byte[] record = PatientCodec.encode(patient);
+        long stamp = lock.writeLock();
+        try {
+            long location = append(record);
+            long previous = index.put(key, location);
+            if (index.needsGrowth()) {
+                index = index.resized(index.capacity() * 2);
+            }
+            liveBytes += 4 + record.length;
+            if (previous >= 0) {
+                release(previous);
+            }
+            if (deadBytes > liveBytes && deadBytes > SLAB_BYTES) {
+                compactSlabs();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void remove(String patientId) {
+        long key = key(patientId);
+        if (key < 0) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            long previous = index.remove(key);
+            if (previous >= 0) {
+                release(previous);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /** Prueba cada número desde {@code fromId}: los IDs se asignan seguidos, así que casi todos existen. */
+    @Override
+    public void scan(String fromId, Predicate<Patient> visitor) {
+        long from = fromId == null ? 0 : key(fromId);
+        if (from < 0) {
+            throw new IllegalArgumentException("ID de paciente no numérico: " + fromId);
+        }
+        for (long key = from; key <= maxKey(); key++) {
+            Patient patient = get(key);
+            if (patient != null && !visitor.test(patient)) {
+                return;
+            }
+        }
+    }
+
+    private long maxKey() {
+        long stamp = lock.readLock();
+        try {
+            return index.maxKey;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Patient get(long key) {
+        long stamp = lock.readLock();
+        try {
+            long location = index.find(key);
+            return location < 0 ? null : view(slabs, location);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Copia el índice, 16 bytes por celda, y comparte los bloques, que nunca se sobrescriben. */
+    @Override
+    public PatientStore.Snapshot snapshot() {
+        OffHeapPatientTable copy;
+        long stamp = lock.readLock();
+        try {
+            copy = new OffHeapPatientTable(index.resized(index.capacity()), slabs);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return new PatientStore.Snapshot() {
+            @Override
+            public Patient get(String patientId) {
+                return copy.get(patientId);
+            }
+
+            @Override
+            public void scan(String fromId, Predicate<Patient> visitor) {
+                copy.scan(fromId, visitor);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static Patient view(ByteBuffer[] slabs, long location) {
+        return new OffHeapPatient(slabs[(int) (location >>> 32)], (int) location + 4);
+    }
+
+    // Se llama con el candado de escritura
+    private long append(byte[] record) {
+        int needed = 4 + record.length;
+        ByteBuffer slab = slabs.length == 0 ? null : slabs[slabs.length - 1];
+        if (slab == null || slabPosition > slab.capacity() - needed) {
+            slab = ByteBuffer.allocateDirect(Math.max(SLAB_BYTES, needed));
+            slabs = Arrays.copyOf(slabs, slabs.length + 1);
+            slabs[slabs.length - 1] = slab;
+            slabPosition = 0;
+        }
+        long location = ((long) (slabs.length - 1) << 32) | slabPosition;
+        slab.putInt(slabPosition, record.length);
+        slab.put(slabPosition + 4, record);
+        slabPosition += needed;
+        return location;
+    }
+
+    private void release(long location) {
+        int size = 4 + slabs[(int) (location >>> 32)].getInt((int) location);
+        liveBytes -= size;
+        deadBytes += size;
+    }
+
+    // Copia los registros vivos a bloques nuevos; los viejos quedan para quien aún los lea
+    private void compactSlabs() {
+        long before = liveBytes + deadBytes;
+        ByteBuffer[] old = slabs;
+        slabs = new ByteBuffer[0];
+        slabPosition = 0;
+        Index current = index;
+        for (int slot = 0; slot < current.keys.length; slot++) {
+            if (current.keys[slot] != 0) {
+                long location = current.locations[slot];
+                ByteBuffer slab = old[(int) (location >>> 32)];
+                byte[] record = new byte[slab.getInt((int) location)];
+                slab.get((int) location + 4, record);
+                current.locations[slot] = append(record);
+            }
+        }
+        deadBytes = 0;
+        logger.info("Compactados " + current.size + " pacientes fuera del heap: " + (before >> 20) + " MiB -> " +
+                   (liveBytes >> 20) + " MiB");
+    }
+
+    // "P000123" -> 123, o -1 si el ID no tiene esa forma
+    private static long key(String patientId) {
+        if (patientId == null || patientId.length() < 2 || patientId.length() > 19 || patientId.charAt(0) != 'P') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 1; i < patientId.length(); i++) {
+            int digit = patientId.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Tabla hash con sondeo lineal. Las claves se guardan como número + 1 para que
+     * 0 marque un hueco libre; al borrar se desplazan las entradas siguientes en vez
+     * de dejar marcas.
+     */
+    private static class Index {
+        final long[] keys;
+        final long[] locations;
+        final int mask;
+        int size;
+        long maxKey = -1;
+
+        Index(int capacity) {
+            this.keys = new long[capacity];
+            this.locations = new long[capacity];
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        boolean needsGrowth() {
+            return size > keys.length * 0.6;
+        }
+
+        private int home(long stored) {
+            long hash = stored * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        long find(long key) {
+            long stored = key + 1;
+            for (int slot = home(stored); ; slot = (slot + 1) & mask) {
+                if (keys[slot] == stored) {
+                    return locations[slot];
+                }
+                if (keys[slot] == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /** Devuelve la posición anterior o -1. */
+        long put(long key, long location) {
+            long stored = key + 1;
+            int slot = home(stored);
+            while (keys[slot] != 0 && keys[slot] != stored) {
+                slot = (slot + 1) & mask;
+            }
+            long previous = keys[slot] == stored ? locations[slot] : -1;
+            if (previous < 0) {
+                size++;
+                maxKey = Math.max(maxKey, key);
+            }
+            locations[slot] = location;
+            keys[slot] = stored;
+            return previous;
+        }
+
+        long remove(long key) {
+            long stored = key + 1;
+            int slot = home(stored);
+            while (keys[slot] != stored) {
+                if (keys[slot] == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            long previous = locations[slot];
+            keys[slot] = 0;
+            size--;
+            // Acerca a su posición ideal las entradas que sondeaban más allá del hueco
+            for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+                int home = home(keys[next]);
+                boolean reachable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+                if (reachable) {
+                    keys[slot] = keys[next];
+                    locations[slot] = locations[next];
+                    keys[next] = 0;
+                    slot = next;
+                }
+            }
+            return previous;
+        }
+
+        Index resized(int capacity) {
+            Index resized = new Index(capacity);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != 0) {
+                    resized.put(keys[slot] - 1, locations[slot]);
+                }
+            }
+            resized.maxKey = maxKey;
+            return resized;
+        }
+    }
+
+    /** Paciente que lee sus campos del registro en el bloque cada vez que se piden. */
+    static class OffHeapPatient extends Patient {
+        private final ByteBuffer slab;
+        private final int record;
+
+        OffHeapPatient(ByteBuffer slab, int record) {
+            super(null, null, null, null, null, 0, null, null, null, 0, null, false, 0);
+            this.slab = slab;
+            this.record = record;
+        }
+
+        @Override public String getPatientId() { return PatientCodec.text(slab, record, PatientCodec.PATIENT_ID); }
+        @Override public String getFullName() { return PatientCodec.text(slab, record, PatientCodec.FULL_NAME); }
+        @Override public String getDocumentId() { return PatientCodec.text(slab, record, PatientCodec.DOCUMENT_ID); }
+        @Override public String getContactEmail() { return PatientCodec.text(slab, record, PatientCodec.CONTACT_EMAIL); }
+        @Override public String getRegistrationDate() { return PatientCodec.text(slab, record, PatientCodec.REGISTRATION_DATE); }
+        @Override public int getAge() { return PatientCodec.age(slab, record); }
+        @Override public String getSex() { return PatientCodec.text(slab, record, PatientCodec.SEX); }
+        @Override public String getClinicalNotes() { return PatientCodec.text(slab, record, PatientCodec.CLINICAL_NOTES); }
+        @Override public String getChecksumFasta() { return PatientCodec.text(slab, record, PatientCodec.CHECKSUM_FASTA); }
+        @Override public int getFileSizeBytes() { return PatientCodec.fileSizeBytes(slab, record); }
+        @Override public String getDiseaseId() { return PatientCodec.text(slab, record, PatientCodec.DISEASE_ID); }
+        @Override public boolean isDeleted() { return PatientCodec.deleted(slab, record); }
+        @Override public long getVersion() { return PatientCodec.version(slab, record); }
+    }
+}
@@ -0,0 +1,350 @@
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Secuencia de nucleótidos empaquetada a 2 bits por base (A=00, C=01, G=10, T=11).
+ * Las bases ambiguas (N o cualquier otro símbolo) se guardan con código 00 y se
+ * marcan en un mapa de bits lateral que solo se reserva si aparece alguna. Las
+ * palabras pueden estar en el heap o leerse directamente de un archivo mapeado.
+ */
+public final class PackedSequence {
+    static final int BASES_PER_WORD = 32;
+    // Bases comparadas entre comprobaciones del presupuesto de diferencias
+    private static final int ABANDON_BLOCK_BASES = 8 * BASES_PER_WORD;
+    private static final long LOW_BITS = ScalarSimilarityKernel.LOW_BITS;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    // Copia por hilo de las palabras mapeadas de un tramo, una para cada lado de la comparación
+    private static final ThreadLocal<long[][]> MAPPED_SCRATCH = ThreadLocal.withInitial(() -> new long[][] {new long[16], new long[16]});
+
+    private final long[] words;
+    private final LongBuffer mappedWords;
+    private final LongBuffer ambiguousMask;
+    private final int length;
+
+    private PackedSequence(long[] words, LongBuffer mappedWords, LongBuffer ambiguousMask, int length) {
+        this.words = words;
+        this.mappedWords = mappedWords;
+        this.ambiguousMask = ambiguousMask;
+        this.length = length;
+    }
+
+    /** Secuencia cuyas palabras se leen en su sitio, sin copiarlas al heap. */
+    static PackedSequence mapped(LongBuffer words, LongBuffer ambiguousMask, int length) {
+        if (words.limit() < wordCount(length) || (ambiguousMask != null && ambiguousMask.limit() < ambiguousWordCount(length))) {
+            throw new IllegalArgumentException("Secuencia mapeada incompleta: " + length + " bases");
+        }
+        return new PackedSequence(null, words, ambiguousMask, length);
+    }
+
+    public static PackedSequence encode(CharSequence sequence) {
+        int length = sequence.length();
+        long[] words = new long[wordCount(length)];
+        long[] ambiguousMask = null;
+
+        for (int i = 0; i < length; i++) {
+            int code = encodeBase(sequence.charAt(i));
+            if (code < 0) {
+                if (ambiguousMask == null) {
+                    ambiguousMask = new long[ambiguousWordCount(length)];
+                }
+                ambiguousMask[i >>> 6] |= 1L << i;
+                continue;
+            }
+            words[i >>> 5] |= (long) code << ((i & 31) << 1);
+        }
+
+        return new PackedSequence(words, null, ambiguousMask == null ? null : LongBuffer.wrap(ambiguousMask), length);
+    }
+
+    static int wordCount(int length) {
+        return (length + BASES_PER_WORD - 1) / BASES_PER_WORD;
+    }
+
+    static int ambiguousWordCount(int length) {
+        return (length + 63) >>> 6;
+    }
+
+    static int encodeBase(char base) {
+        switch (base) {
+            case 'A': case 'a': return 0;
+            case 'C': case 'c': return 1;
+            case 'G': case 'g': return 2;
+            case 'T': case 't': return 3;
+            default: return -1;
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean hasAmbiguousBases() {
+        return ambiguousMask != null;
+    }
+
+    public char baseAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Posición fuera de la secuencia: " + index);
+        }
+        int code = codeAt(index);
+        return code < 0 ? 'N' : BASES[code];
+    }
+
+    /** Código de 2 bits de la base, o -1 si es ambigua. */
+    int codeAt(int index) {
+        if (ambiguousMask != null && (ambiguousMask.get(index >>> 6) & (1L << index)) != 0) {
+            return -1;
+        }
+        return (int) (word(index >>> 5) >>> ((index & 31) << 1)) & 3;
+    }
+
+    long word(int wordIndex) {
+        return words != null ? words[wordIndex] : mappedWords.get(wordIndex);
+    }
+
+    // Palabra del mapa de bases ambiguas, o 0 si la secuencia no tiene ninguna
+    long ambiguousWord(int wordIndex) {
+        return ambiguousMask == null ? 0L : ambiguousMask.get(wordIndex);
+    }
+
+    /**
+     * Cuenta las posiciones distintas entre esta secuencia desde {@code offset} y
+     * {@code other} desde {@code otherOffset} con el núcleo elegido al arrancar
+     * (XOR y popcount sobre palabras de 32 bases, escalar o vectorial). Dos N se consideran iguales, igual que la comparación por
+     * caracteres original.
+     */
+    public int countMismatches(int offset, PackedSequence other, int otherOffset, int count) {
+        checkRange(offset, count);
+        other.checkRange(otherOffset, count);
+
+        return countBlock(offset, other, otherOffset, count);
+    }
+
+    // Posiciones con el mismo código pero donde solo una de las dos bases es ambigua;
+    // los códigos se leen de los mismos arreglos que usó el núcleo en countBlock
+    private int countAmbiguousMismatches(int offset, PackedSequence other, int otherOffset, int count,
+                                         long[] a, int aOffset, long[] b, int bOffset) {
+        int mismatches = 0;
+
+        for (int done = 0; done < count; done += BASES_PER_WORD) {
+            long ambiguousDiff = ambiguousBitsAt(offset + done) ^ other.ambiguousBitsAt(otherOffset + done);
+            if (ambiguousDiff == 0) {
+                continue;
+            }
+
+            int chunk = Math.min(BASES_PER_WORD, count - done);
+            long diff = ScalarSimilarityKernel.wordAt(a, aOffset + done) ^ ScalarSimilarityKernel.wordAt(b, bOffset + done);
+            long lanes = spreadToLanes(ambiguousDiff) & ~((diff | (diff >>> 1)) & LOW_BITS);
+            if (chunk < BASES_PER_WORD) {
+                lanes &= (1L << (chunk << 1)) - 1;
+            }
+            mismatches += Long.bitCount(lanes);
+        }
+
+        return mismatches;
+    }
+
+    public int countMatches(int offset, PackedSequence other, int otherOffset, int count) {
+        return count - countMismatches(offset, other, otherOffset, count);
+    }
+
+    /**
+     * Como {@link #countMismatches}, pero deja de comparar en cuanto se supera
+     * {@code maxMismatches}; en ese caso devuelve un valor mayor que el límite que no
+     * es el total exacto.
+     */
+    public int countMismatchesBounded(int offset, PackedSequence other, int otherOffset, int count, int maxMismatches) {
+        checkRange(offset, count);
+        other.checkRange(otherOffset, count);
+
+        int mismatches = 0;
+        for (int done = 0; done < count && mismatches <= maxMismatches; done += ABANDON_BLOCK_BASES) {
+            mismatches += countBlock(offset + done, other, otherOffset + done, Math.min(ABANDON_BLOCK_BASES, count - done));
+        }
+        return mismatches;
+    }
+
+    /**
+     * Indica si hay a lo sumo {@code maxMismatches} diferencias. Termina en cuanto la
+     * respuesta está decidida: al superar el límite, o cuando ni aunque fallaran
+     * todas las bases restantes se llegaría a superarlo.
+     */
+    public boolean matchesWithin(int offset, PackedSequence other, int otherOffset, int count, int maxMismatches) {
+        checkRange(offset, count);
+        other.checkRange(otherOffset, count);
+
+        int mismatches = 0;
+        for (int done = 0; done < count; done += ABANDON_BLOCK_BASES) {
+            if (mismatches + (count - done) <= maxMismatches) {
+                return true;
+            }
+            mismatches += countBlock(offset + done, other, otherOffset + done, Math.min(ABANDON_BLOCK_BASES, count - done));
+            if (mismatches > maxMismatches) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compara con el núcleo elegido al arrancar. Los núcleos trabajan sobre arreglos:
+     * de una secuencia mapeada se copian al arreglo del hilo solo las palabras del
+     * tramo, y la base {@code offset} queda en la posición {@code offset & 31}.
+     */
+    private int countBlock(int offset, PackedSequence other, int otherOffset, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] a = words;
+        int aOffset = offset;
+        long[] b = other.words;
+        int bOffset = otherOffset;
+        if (a == null || b == null) {
+            long[][] scratch = MAPPED_SCRATCH.get();
+            if (a == null) {
+                a = copyWords(offset, count, scratch, 0);
+                aOffset = offset & 31;
+            }
+            if (b == null) {
+                b = other.copyWords(otherOffset, count, scratch, 1);
+                bOffset = otherOffset & 31;
+            }
+        }
+        int mismatches = SimilarityKernels.get().countMismatches(a, aOffset, b, bOffset, count);
+        if (ambiguousMask != null || other.ambiguousMask != null) {
+            mismatches += countAmbiguousMismatches(offset, other, otherOffset, count, a, aOffset, b, bOffset);
+        }
+        return mismatches;
+    }
+
+    private long[] copyWords(int offset, int count, long[][] scratch, int side) {
+        int wordCount = wordCount((offset & 31) + count);
+        if (scratch[side].length < wordCount) {
+            scratch[side] = new long[Math.max(wordCount, scratch[side].length * 2)];
+        }
+        mappedWords.get(offset >>> 5, scratch[side], 0, wordCount);
+        return scratch[side];
+    }
+
+    private long ambiguousBitsAt(int baseIndex) {
+        if (ambiguousMask == null) {
+            return 0L;
+        }
+        int wordIndex = baseIndex >>> 6;
+        int shift = baseIndex & 63;
+
+        long bits = ambiguousMask.get(wordIndex) >>> shift;
+        if (shift != 0 && wordIndex + 1 < ambiguousMask.limit()) {
+            bits |= ambiguousMask.get(wordIndex + 1) << (64 - shift);
+        }
+        return bits & 0xFFFFFFFFL;
+    }
+
+    // Reparte 32 bits sobre los bits bajos de cada carril de 2 bits
+    private static long spreadToLanes(long bits) {
+        bits = (bits | (bits << 16)) & 0x0000FFFF0000FFFFL;
+        bits = (bits | (bits << 8)) & 0x00FF00FF00FF00FFL;
+        bits = (bits | (bits << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        bits = (bits | (bits << 2)) & 0x3333333333333333L;
+        bits = (bits | (bits << 1)) & LOW_BITS;
+        return bits;
+    }
+
+    private void checkRange(int offset, int count) {
+        if (offset < 0 || count < 0 || offset + count > length) {
+            throw new IndexOutOfBoundsException("Rango fuera de la secuencia: " + offset + "+" + count + " de " + length);
+        }
+    }
+
+    /**
+     * Acumula bases empaquetadas a medida que llegan. Permite descartar el principio
+     * ya procesado para que la memoria dependa de la ventana y no del archivo.
+     */
+    static final class Builder {
+        private long[] words = new long[16];
+        private long[] ambiguousMask;
+        private int length;
+
+        void append(CharSequence bases) {
+            for (int i = 0; i < bases.length(); i++) {
+                append(bases.charAt(i));
+            }
+        }
+
+        void append(char base) {
+            if (length == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Secuencia demasiado larga para empaquetar");
+            }
+            if (wordCount(length + 1) > words.length) {
+                words = Arrays.copyOf(words, Math.max(words.length * 2, wordCount(length + 1)));
+            }
+            int code = encodeBase(base);
+            if (code < 0) {
+                int needed = ambiguousWordCount(length + 1);
+                if (ambiguousMask == null) {
+                    ambiguousMask = new long[Math.max(needed, (words.length + 1) / 2)];
+                } else if (needed > ambiguousMask.length) {
+                    ambiguousMask = Arrays.copyOf(ambiguousMask, Math.max(needed, ambiguousMask.length * 2));
+                }
+                ambiguousMask[length >>> 6] |= 1L << length;
+            } else {
+                words[length >>> 5] |= (long) code << ((length & 31) << 1);
+            }
+            length++;
+        }
+
+        int length() {
+            return length;
+        }
+
+        PackedSequence build() {
+            long[] mask = ambiguousMask == null ? null : Arrays.copyOf(ambiguousMask, ambiguousWordCount(length));
+            return new PackedSequence(Arrays.copyOf(words, wordCount(length)), null,
+                                      mask == null ? null : LongBuffer.wrap(mask), length);
+        }
+
+        // Desplaza las bases para que la base {@code bases} pase a ser la primera
+        void discardBefore(int bases) {
+            if (bases <= 0) {
+                return;
+            }
+            int remaining = length - bases;
+            long[] shifted = new long[Math.max(16, words.length)];
+            for (int w = 0; w < wordCount(remaining); w++) {
+                shifted[w] = ScalarSimilarityKernel.wordAt(words, bases + w * BASES_PER_WORD);
+            }
+            if ((remaining & 31) != 0) {
+                shifted[remaining >>> 5] &= (1L << ((remaining & 31) << 1)) - 1;
+            }
+            words = shifted;
+
+            if (ambiguousMask != null) {
+                // El mapa solo crece al llegar bases ambiguas, puede ser más corto que la secuencia
+                long[] mask = new long[ambiguousMask.length];
+                int wordShift = bases >>> 6;
+                int bitShift = bases & 63;
+                for (int w = 0; w < ambiguousWordCount(remaining) && w + wordShift < ambiguousMask.length; w++) {
+                    long bits = ambiguousMask[w + wordShift] >>> bitShift;
+                    if (bitShift != 0 && w + wordShift + 1 < ambiguousMask.length) {
+                        bits |= ambiguousMask[w + wordShift + 1] << (64 - bitShift);
+                    }
+                    mask[w] = bits;
+                }
+                if ((remaining & 63) != 0 && (remaining >>> 6) < mask.length) {
+                    mask[remaining >>> 6] &= (1L << remaining) - 1;
+                }
+                ambiguousMask = mask;
+            }
+            length = remaining;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(baseAt(i));
+        }
+        return sb.toString();
+    }
+}
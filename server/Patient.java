@@ -1,19 +1,24 @@
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
+/**
+ * Estado inmutable de un paciente. Los cambios crean una copia con la versión
+ * siguiente ({@code withX}), así que los lectores nunca ven un registro a medias.
+ */
 public class Patient {
-    private String patientId;
-    private String fullName;
-    private String documentId;
-    private String contactEmail;
-    private String registrationDate;
-    private int age;
-    private String sex;
-    private String clinicalNotes;
-    private String checksumFasta;
-    private int fileSizeBytes;
-    private String diseaseId;
-    private boolean deleted;
+    private final String patientId;
+    private final String fullName;
+    private final String documentId;
+    private final String contactEmail;
+    private final String registrationDate;
+    private final int age;
+    private final String sex;
+    private final String clinicalNotes;
+    private final String checksumFasta;
+    private final int fileSizeBytes;
+    private final String diseaseId;
+    private final boolean deleted;
+    private final long version;
     
     public Patient(String patientId, String fullName, String documentId, String contactEmail, 
                    int age, String sex, String clinicalNotes) {
@@ -25,15 +30,17 @@ public class Patient {
         this.sex = sex;
         this.clinicalNotes = clinicalNotes;
         this.registrationDate = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        this.checksumFasta = null;
         this.deleted = false;
         this.fileSizeBytes = 0;
         this.diseaseId = "";
+        this.version = 1;
     }
     
     // Constructor for loading from CSV
     public Patient(String patientId, String fullName, String documentId, String contactEmail,
                    String registrationDate, int age, String sex, String clinicalNotes,
-                   String checksumFasta, int fileSizeBytes, String diseaseId, boolean deleted) {
+                   String checksumFasta, int fileSizeBytes, String diseaseId, boolean deleted, long version) {
         this.patientId = patientId;
         this.fullName = fullName;
         this.documentId = documentId;
@@ -46,6 +53,7 @@ public class Patient {
         this.fileSizeBytes = fileSizeBytes;
         this.diseaseId = diseaseId;
         this.deleted = deleted;
+        this.version = version;
     }
     
     // Getters
@@ -62,31 +70,47 @@ public class Patient {
     public String getDiseaseId() { return diseaseId; }
     public boolean isDeleted() { return deleted; }
     
-    // Setters
-    public void setFullName(String fullName) { this.fullName = fullName; }
-    public void setContactEmail(String contactEmail) { this.contactEmail = contactEmail; }
-    public void setAge(int age) { this.age = age; }
-    public void setSex(String sex) { this.sex = sex; }
-    public void setClinicalNotes(String clinicalNotes) { this.clinicalNotes = clinicalNotes; }
-    public void setChecksumFasta(String checksumFasta) { this.checksumFasta = checksumFasta; }
-    public void setFileSizeBytes(int fileSizeBytes) { this.fileSizeBytes = fileSizeBytes; }
-    public void setDiseaseId(String diseaseId) { this.diseaseId = diseaseId; }
-    public void setDeleted(boolean deleted) { this.deleted = deleted; }
+    public long getVersion() { return version; }
+    
+    // Copias con la versión siguiente
+    public Patient withDetails(String fullName, String contactEmail, int age, String sex, String clinicalNotes) {
+        return new Patient(getPatientId(), fullName, getDocumentId(), contactEmail, getRegistrationDate(), age, sex,
+                           clinicalNotes, getChecksumFasta(), getFileSizeBytes(), getDiseaseId(), isDeleted(), getVersion() + 1);
+    }
+    
+    public Patient withFasta(String checksumFasta, int fileSizeBytes) {
+        return new Patient(getPatientId(), getFullName(), getDocumentId(), getContactEmail(), getRegistrationDate(),
+                           getAge(), getSex(), getClinicalNotes(), checksumFasta, fileSizeBytes, getDiseaseId(),
+                           isDeleted(), getVersion() + 1);
+    }
+    
+    public Patient withDiseaseId(String diseaseId) {
+        return new Patient(getPatientId(), getFullName(), getDocumentId(), getContactEmail(), getRegistrationDate(),
+                           getAge(), getSex(), getClinicalNotes(), getChecksumFasta(), getFileSizeBytes(), diseaseId,
+                           isDeleted(), getVersion() + 1);
+    }
+    
+    public Patient withDeleted(boolean deleted) {
+        return new Patient(getPatientId(), getFullName(), getDocumentId(), getContactEmail(), getRegistrationDate(),
+                           getAge(), getSex(), getClinicalNotes(), getChecksumFasta(), getFileSizeBytes(), getDiseaseId(),
+                           deleted, getVersion() + 1);
+    }
     
     public String toCsvString() {
         return String.join(",",
-            escapeCommas(patientId),
-            escapeCommas(fullName),
-            escapeCommas(documentId),
-            escapeCommas(contactEmail),
-            escapeCommas(registrationDate),
-            String.valueOf(age),
-            escapeCommas(sex),
-            escapeCommas(clinicalNotes),
-            escapeCommas(checksumFasta != null ? checksumFasta : ""),
-            String.valueOf(fileSizeBytes),
-            escapeCommas(diseaseId != null ? diseaseId : ""),
-            String.valueOf(deleted)
+            escapeCommas(getPatientId()),
+            escapeCommas(getFullName()),
+            escapeCommas(getDocumentId()),
+            escapeCommas(getContactEmail()),
+            escapeCommas(getRegistrationDate()),
+            String.valueOf(getAge()),
+            escapeCommas(getSex()),
+            escapeCommas(getClinicalNotes()),
+            escapeCommas(getChecksumFasta() != null ? getChecksumFasta() : ""),
+            String.valueOf(getFileSizeBytes()),
+            escapeCommas(getDiseaseId() != null ? getDiseaseId() : ""),
+            String.valueOf(isDeleted()),
+            String.valueOf(getVersion())
         );
     }
     
@@ -101,14 +125,15 @@ public class Patient {
     @Override
     public String toString() {
         return "Patient{" +
-                "patientId='" + patientId + '\'' +
-                ", fullName='" + fullName + '\'' +
-                ", documentId='" + documentId + '\'' +
-                ", contactEmail='" + contactEmail + '\'' +
-                ", registrationDate='" + registrationDate + '\'' +
-                ", age=" + age +
-                ", sex='" + sex + '\'' +
-                ", deleted=" + deleted +
+                "patientId='" + getPatientId() + '\'' +
+                ", fullName='" + getFullName() + '\'' +
+                ", documentId='" + getDocumentId() + '\'' +
+                ", contactEmail='" + getContactEmail() + '\'' +
+                ", registrationDate='" + getRegistrationDate() + '\'' +
+                ", age=" + getAge() +
+                ", sex='" + getSex() + '\'' +
+                ", deleted=" + isDeleted() +
+                ", version=" + getVersion() +
                 '}';
     }
 }
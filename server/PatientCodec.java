@@ -0,0 +1,122 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codificación binaria de un paciente para los segmentos LSM y la tabla fuera del heap:
+ *
+ * <pre>
+ * [edad int][tamaño FASTA int][versión long][borrado byte]
+ * 9 x [longitud int, -1 si es null][texto UTF-8]
+ * </pre>
+ *
+ * Los textos van en el orden de {@link Patient#toCsvString} sin los números. Un
+ * campo suelto se puede leer sin decodificar el resto: los fijos están en posiciones
+ * conocidas y para un texto basta con saltar las longitudes de los anteriores.
+ */
+public class PatientCodec {
+    private static final int FIXED_BYTES = 4 + 4 + 8 + 1;
+    private static final int TEXT_FIELDS = 9;
+    static final int PATIENT_ID = 0;
+    static final int FULL_NAME = 1;
+    static final int DOCUMENT_ID = 2;
+    static final int CONTACT_EMAIL = 3;
+    static final int REGISTRATION_DATE = 4;
+    static final int SEX = 5;
+    static final int CLINICAL_NOTES = 6;
+    static final int CHECKSUM_FASTA = 7;
+    static final int DISEASE_ID = 8;
+
+    public static byte[] encode(Patient patient) {
+        byte[][] texts = {
+            utf8(patient.getPatientId()), utf8(patient.getFullName()), utf8(patient.getDocumentId()),
+            utf8(patient.getContactEmail()), utf8(patient.getRegistrationDate()), utf8(patient.getSex()),
+            utf8(patient.getClinicalNotes()), utf8(patient.getChecksumFasta()), utf8(patient.getDiseaseId())
+        };
+        int size = FIXED_BYTES + 4 * TEXT_FIELDS;
+        for (byte[] text : texts) {
+            size += text != null ? text.length : 0;
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(patient.getAge()).putInt(patient.getFileSizeBytes()).putLong(patient.getVersion())
+           .put((byte) (patient.isDeleted() ? 1 : 0));
+        for (byte[] text : texts) {
+            if (text == null) {
+                out.putInt(-1);
+            } else {
+                out.putInt(text.length).put(text);
+            }
+        }
+        return out.array();
+    }
+
+    /** Lee un paciente desde la posición actual de {@code in} y la deja al final del registro. */
+    public static Patient decode(ByteBuffer in) {
+        int age = in.getInt();
+        int fileSizeBytes = in.getInt();
+        long version = in.getLong();
+        boolean deleted = in.get() != 0;
+        String patientId = text(in);
+        String fullName = text(in);
+        String documentId = text(in);
+        String contactEmail = text(in);
+        String registrationDate = text(in);
+        String sex = text(in);
+        String clinicalNotes = text(in);
+        String checksumFasta = text(in);
+        String diseaseId = text(in);
+        return new Patient(patientId, fullName, documentId, contactEmail, registrationDate, age, sex,
+                           clinicalNotes, checksumFasta, fileSizeBytes, diseaseId, deleted, version);
+    }
+
+    static int age(ByteBuffer in, int record) {
+        return in.getInt(record);
+    }
+
+    static int fileSizeBytes(ByteBuffer in, int record) {
+        return in.getInt(record + 4);
+    }
+
+    static long version(ByteBuffer in, int record) {
+        return in.getLong(record + 8);
+    }
+
+    static boolean deleted(ByteBuffer in, int record) {
+        return in.get(record + 16) != 0;
+    }
+
+    /** El texto {@code field} del registro que empieza en {@code record}, sin mover la posición. */
+    static String text(ByteBuffer in, int record, int field) {
+        int position = record + FIXED_BYTES;
+        for (int i = 0; i < field; i++) {
+            position += 4 + Math.max(0, in.getInt(position));
+        }
+        int length = in.getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String text(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(in.position(), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,368 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Carga en paralelo el snapshot {@code patients.csv}. El archivo se parte en tramos
+ * mapeados en memoria; como una nota clínica entre comillas puede contener saltos de
+ * línea, primero se cuentan las comillas de cada tramo para saber si empieza dentro
+ * de un campo y así fijar cada corte en un fin de fila real. Cada tramo se analiza
+ * con un {@link RowScanner} propio que reutiliza sus buffers entre filas.
+ */
+public class PatientCsvLoader {
+    private static final Logger logger = Logger.getLogger(PatientCsvLoader.class.getName());
+    private static final int THREADS = Integer.getInteger("genomic.patients.loadThreads",
+                                                          Runtime.getRuntime().availableProcessors());
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+    private static final int FIELDS = 13;
+    private static final int LEGACY_FIELDS = 12;
+
+    /** Devuelve los pacientes de cada tramo, en el orden del archivo. */
+    public static List<List<Patient>> load(Path file) throws IOException, InterruptedException {
+        List<List<Patient>> chunks = new ArrayList<>();
+        load(file, chunks::add);
+        return chunks;
+    }
+    
+    /**
+     * Entrega cada tramo a {@code sink} en el orden del archivo según se termina de
+     * analizar, para que el llamador no tenga que retener todos a la vez.
+     */
+    public static void load(Path file, Consumer<List<Patient>> sink) 
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        int rows = 0;
+        int threads = 1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) Math.max(1, Math.min(THREADS * 4L, size / MIN_CHUNK_BYTES));
+            threads = Math.min(THREADS, count);
+            long[] starts = new long[count + 1];
+            for (int i = 0; i <= count; i++) {
+                starts[i] = size * i / count;
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "patient-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                MappedByteBuffer[] regions = new MappedByteBuffer[count];
+                List<Future<Boolean>> parities = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, starts[i], starts[i + 1] - starts[i]);
+                    MappedByteBuffer region = regions[i];
+                    parities.add(pool.submit(() -> oddQuotes(region)));
+                }
+
+                // Inicio de la primera fila completa de cada tramo; el tramo 0 salta la cabecera
+                boolean inQuotes = false;
+                List<Future<Integer>> rowStarts = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    MappedByteBuffer region = regions[i];
+                    boolean quoted = inQuotes;
+                    rowStarts.add(pool.submit(() -> firstRowStart(region, quoted)));
+                    inQuotes ^= parities.get(i).get();
+                }
+
+                List<Future<List<Patient>>> parsed = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    int from = rowStarts.get(i).get();
+                    if (from < 0) {
+                        continue; // El tramo entero está dentro de una fila que empezó antes
+                    }
+                    int last = i;
+                    for (int j = i + 1; j < count; j++) {
+                        int next = rowStarts.get(j).get();
+                        if (next >= 0) {
+                            break;
+                        }
+                        last = j;
+                    }
+                    long rowFrom = starts[i] + from;
+                    long rowTo = last + 1 < count ? starts[last + 1] + rowStarts.get(last + 1).get() : size;
+                    MappedByteBuffer rowsRegion = channel.map(FileChannel.MapMode.READ_ONLY, rowFrom, rowTo - rowFrom);
+                    parsed.add(pool.submit(() -> new RowScanner(rowsRegion).parseAll()));
+                }
+                for (int i = 0; i < parsed.size(); i++) {
+                    List<Patient> patients = parsed.get(i).get();
+                    parsed.set(i, null);
+                    rows += patients.size();
+                    sink.accept(patients);
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Error analizando " + file, e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        long elapsed = Math.max(1, System.nanoTime() - started);
+        logger.info("Cargados " + rows + " pacientes desde CSV en " + (elapsed / 1_000_000) + " ms (" +
+                   (rows * 1_000_000_000L / elapsed) + " filas/s, " + threads + " hilos)");
+    }
+
+    /** Analiza una fila suelta, como las del log de pacientes; null si no es válida. */
+    public static Patient parseLine(String csvLine) {
+        try {
+            List<String> fields = splitLine(csvLine);
+            // Las filas anteriores a la columna de versión tienen 12 campos
+            if (fields.size() != LEGACY_FIELDS && fields.size() != FIELDS) {
+                logger.warning("Formato de línea CSV inválido: " + csvLine);
+                return null;
+            }
+            
+            return new Patient(
+                fields.get(0),
+                fields.get(1),
+                fields.get(2),
+                fields.get(3),
+                fields.get(4),
+                Integer.parseInt(fields.get(5)),
+                fields.get(6),
+                fields.get(7),
+                fields.get(8).isEmpty() ? null : fields.get(8),
+                Integer.parseInt(fields.get(9)),
+                fields.get(10).isEmpty() ? "" : fields.get(10),
+                Boolean.parseBoolean(fields.get(11)),
+                fields.size() == FIELDS ? Long.parseLong(fields.get(12)) : 0
+            );
+        } catch (Exception e) {
+            logger.warning("Error analizando línea CSV: " + csvLine + " - " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private static List<String> splitLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inQuotes = false;
+        
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            
+            if (c == '"') {
+                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++; // Skip next quote
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else if (c == ',' && !inQuotes) {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        
+        fields.add(current.toString());
+        return fields;
+    }
+
+    private static boolean oddQuotes(MappedByteBuffer region) {
+        int quotes = 0;
+        for (int i = 0; i < region.limit(); i++) {
+            if (region.get(i) == '"') {
+                quotes++;
+            }
+        }
+        return (quotes & 1) != 0;
+    }
+
+    // Posición tras el primer salto de línea fuera de comillas, o -1 si no hay ninguno
+    private static int firstRowStart(MappedByteBuffer region, boolean inQuotes) {
+        for (int i = 0; i < region.limit(); i++) {
+            byte b = region.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Recorre las filas de un tramo. Cada fila se copia una vez a un buffer reutilizable
+     * y sus campos quedan como pares inicio/fin; solo se crean los String que guarda
+     * el paciente y los números se leen directamente de los bytes.
+     */
+    static class RowScanner {
+        private final MappedByteBuffer region;
+        private byte[] row = new byte[1024];
+        private final int[] fieldStart = new int[FIELDS + 1];
+        private final int[] fieldEnd = new int[FIELDS + 1];
+        private final boolean[] escaped = new boolean[FIELDS + 1];
+        private int fieldCount;
+
+        RowScanner(MappedByteBuffer region) {
+            this.region = region;
+        }
+
+        List<Patient> parseAll() {
+            List<Patient> patients = new ArrayList<>();
+            int position = 0;
+            int limit = region.limit();
+            while (position < limit) {
+                int end = rowEnd(position, limit);
+                int length = end - position;
+                if (length > 0 && region.get(end - 1) == '\r') {
+                    length--;
+                }
+                if (length > 0) {
+                    if (row.length < length) {
+                        row = new byte[Math.max(length, row.length * 2)];
+                    }
+                    region.get(position, row, 0, length);
+                    Patient patient = parseRow(length);
+                    if (patient != null) {
+                        patients.add(patient);
+                    }
+                }
+                position = end + 1;
+            }
+            return patients;
+        }
+
+        private int rowEnd(int from, int limit) {
+            boolean inQuotes = false;
+            for (int i = from; i < limit; i++) {
+                byte b = region.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    return i;
+                }
+            }
+            return limit;
+        }
+
+        private Patient parseRow(int length) {
+            if (!splitFields(length) || (fieldCount != LEGACY_FIELDS && fieldCount != FIELDS)) {
+                logger.warning("Formato de línea CSV inválido: " + new String(row, 0, length, StandardCharsets.UTF_8));
+                return null;
+            }
+            try {
+                String checksum = text(8);
+                return new Patient(text(0), text(1), text(2), text(3), text(4), (int) number(5), text(6), text(7),
+                                   checksum.isEmpty() ? null : checksum, (int) number(9), text(10), flag(11),
+                                   fieldCount == FIELDS ? number(12) : 0);
+            } catch (NumberFormatException e) {
+                logger.warning("Error analizando línea CSV: " + new String(row, 0, length, StandardCharsets.UTF_8) +
+                               " - " + e.getMessage());
+                return null;
+            }
+        }
+
+        private boolean splitFields(int length) {
+            fieldCount = 0;
+            int i = 0;
+            while (true) {
+                if (fieldCount > FIELDS) {
+                    return false;
+                }
+                if (i < length && row[i] == '"') {
+                    int start = ++i;
+                    boolean hasEscapes = false;
+                    while (i < length) {
+                        if (row[i] == '"') {
+                            if (i + 1 < length && row[i + 1] == '"') {
+                                hasEscapes = true;
+                                i += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        i++;
+                    }
+                    setField(start, i, hasEscapes);
+                    i++; // Comilla de cierre
+                } else {
+                    int start = i;
+                    while (i < length && row[i] != ',') {
+                        i++;
+                    }
+                    setField(start, i, false);
+                }
+                if (i >= length) {
+                    return true;
+                }
+                if (row[i] != ',') {
+                    return false;
+                }
+                i++;
+                if (i == length) {
+                    setField(i, i, false);
+                    return true;
+                }
+            }
+        }
+
+        private void setField(int start, int end, boolean hasEscapes) {
+            if (fieldCount <= FIELDS) {
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = end;
+                escaped[fieldCount] = hasEscapes;
+            }
+            fieldCount++;
+        }
+
+        private String text(int field) {
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            if (!escaped[field]) {
+                return new String(row, start, end - start, StandardCharsets.UTF_8);
+            }
+            // Las comillas dobladas se compactan en el mismo buffer
+            int out = start;
+            for (int i = start; i < end; i++) {
+                row[out++] = row[i];
+                if (row[i] == '"') {
+                    i++;
+                }
+            }
+            escaped[field] = false;
+            fieldEnd[field] = out;
+            return new String(row, start, out - start, StandardCharsets.UTF_8);
+        }
+
+        private long number(int field) {
+            int start = fieldStart[field];
+            int end = fieldEnd[field];
+            boolean negative = start < end && row[start] == '-';
+            if (negative) {
+                start++;
+            }
+            if (start == end) {
+                throw new NumberFormatException("campo " + field + " vacío");
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = row[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("campo " + field + " no numérico");
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        // Igual que Boolean.parseBoolean: solo "true", sin distinguir mayúsculas, es verdadero
+        private boolean flag(int field) {
+            int start = fieldStart[field];
+            if (fieldEnd[field] - start != 4) {
+                return false;
+            }
+            return (row[start] | 0x20) == 't' && (row[start + 1] | 0x20) == 'r'
+                && (row[start + 2] | 0x20) == 'u' && (row[start + 3] | 0x20) == 'e';
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Índices secundarios de pacientes: prefijos de las palabras del nombre y edad en
+ * mapas ordenados, email, sexo y enfermedad detectada en mapas hash. Cada entrada
+ * apunta a un conjunto ordenado de IDs con su tamaño, así que una búsqueda parte
+ * del criterio con menos candidatos y los resultados salen siempre en el mismo
+ * orden, lo que permite paginar.
+ *
+ * <p>Los índices se actualizan bajo el candado del paciente, pero un lector puede
+ * verlos a mitad de un cambio: {@link PatientManager#searchPatients} vuelve a
+ * comprobar cada candidato contra el registro vivo.
+ *
+ * <p>Todo vive en el heap: cada paciente activo ocupa un nodo por palabra del
+ * nombre, por edad, email y sexo, más su ID y su email en texto.
+ */
+public class PatientIndex {
+    private final ConcurrentSkipListMap<String, Postings> nameWords = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<Integer, Postings> ages = new ConcurrentSkipListMap<>();
+    private final Map<String, Postings> emails = new ConcurrentHashMap<>();
+    private final Map<String, Postings> sexes = new ConcurrentHashMap<>();
+    private final Map<String, Postings> diseases = new ConcurrentHashMap<>();
+    private final AtomicInteger activePatients = new AtomicInteger();
+
+    /** Reemplaza las entradas de {@code previous} por las de {@code current}; ambos pueden ser null. */
+    public void update(Patient previous, Patient current) {
+        if (previous != null && !previous.isDeleted()) {
+            for (String word : words(previous.getFullName())) {
+                remove(nameWords, word, previous.getPatientId());
+            }
+            remove(ages, previous.getAge(), previous.getPatientId());
+            remove(emails, normalize(previous.getContactEmail()), previous.getPatientId());
+            remove(sexes, normalize(previous.getSex()), previous.getPatientId());
+            activePatients.decrementAndGet();
+        }
+        if (current != null && !current.isDeleted()) {
+            for (String word : words(current.getFullName())) {
+                add(nameWords, word, current.getPatientId());
+            }
+            add(ages, current.getAge(), current.getPatientId());
+            add(emails, normalize(current.getContactEmail()), current.getPatientId());
+            add(sexes, normalize(current.getSex()), current.getPatientId());
+            activePatients.incrementAndGet();
+            if (current.getDiseaseId() != null && !current.getDiseaseId().isEmpty()) {
+                addDisease(current.getPatientId(), current.getDiseaseId());
+            }
+        }
+    }
+
+    // Las detecciones no se quitan: el reporte sigue existiendo aunque el paciente cambie
+    public void addDisease(String patientId, String diseaseId) {
+        add(diseases, normalize(diseaseId), patientId);
+    }
+
+    public int getActivePatients() {
+        return activePatients.get();
+    }
+
+    public boolean hasDisease(String patientId, String diseaseId) {
+        Postings postings = diseases.get(normalize(diseaseId));
+        return postings != null && postings.ids.contains(patientId);
+    }
+
+    /**
+     * Candidatos para {@code query}: los IDs del criterio indexado con menos entradas.
+     * Un mismo ID puede aparecer más de una vez si varias palabras de su nombre
+     * empiezan por el prefijo buscado.
+     */
+    public Iterable<String> candidates(PatientQuery query) {
+        List<Collection<Postings>> options = new ArrayList<>();
+        if (query.getEmail() != null) {
+            options.add(single(emails.get(normalize(query.getEmail()))));
+        }
+        if (query.getDiseaseId() != null) {
+            options.add(single(diseases.get(normalize(query.getDiseaseId()))));
+        }
+        if (query.getSex() != null) {
+            options.add(single(sexes.get(normalize(query.getSex()))));
+        }
+        if (query.hasAgeRange()) {
+            options.add(query.getMinAge() > query.getMaxAge() ? Collections.emptyList()
+                        : ages.subMap(query.getMinAge(), true, query.getMaxAge(), true).values());
+        }
+        if (query.getNamePrefix() != null) {
+            List<String> words = words(query.getNamePrefix());
+            String key = words.isEmpty() ? "" : words.get(0);
+            options.add(nameWords.subMap(key, true, key + Character.MAX_VALUE, false).values());
+        }
+        if (options.isEmpty()) {
+            throw new IllegalArgumentException("Se requiere al menos un criterio de búsqueda");
+        }
+
+        Collection<Postings> best = null;
+        long bestSize = Long.MAX_VALUE;
+        for (Collection<Postings> option : options) {
+            long size = estimate(option, bestSize);
+            if (size < bestSize) {
+                best = option;
+                bestSize = size;
+            }
+        }
+        Collection<Postings> driver = best != null ? best : options.get(0);
+        return () -> concat(driver.iterator());
+    }
+
+    // A mano: el iterator() de un flatMap llena un buffer con cada conjunto completo
+    private static Iterator<String> concat(Iterator<Postings> sets) {
+        return new Iterator<String>() {
+            private Iterator<String> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && sets.hasNext()) {
+                    current = sets.next().ids.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+
+    // Suma hasta superar la mejor opción: un prefijo corto puede abarcar miles de palabras
+    private static long estimate(Collection<Postings> option, long limit) {
+        long size = 0;
+        for (Postings postings : option) {
+            size += postings.size.get();
+            if (size >= limit) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    private static Collection<Postings> single(Postings postings) {
+        return postings != null ? List.of(postings) : Collections.emptyList();
+    }
+
+    static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    static List<String> words(String fullName) {
+        List<String> words = new ArrayList<>(4);
+        String name = normalize(fullName);
+        int start = -1;
+        for (int i = 0; i <= name.length(); i++) {
+            boolean space = i == name.length() || Character.isWhitespace(name.charAt(i));
+            if (space && start >= 0) {
+                words.add(name.substring(start, i));
+                start = -1;
+            } else if (!space && start < 0) {
+                start = i;
+            }
+        }
+        return words;
+    }
+
+    // Los conjuntos vacíos se dejan en el mapa: quitarlos compite con un add concurrente
+    private static <K> void add(Map<K, Postings> index, K key, String patientId) {
+        Postings postings = index.computeIfAbsent(key, k -> new Postings());
+        if (postings.ids.add(patientId)) {
+            postings.size.incrementAndGet();
+        }
+    }
+
+    private static <K> void remove(Map<K, Postings> index, K key, String patientId) {
+        Postings postings = index.get(key);
+        if (postings != null && postings.ids.remove(patientId)) {
+            postings.size.decrementAndGet();
+        }
+    }
+
+    // ConcurrentSkipListSet.size() recorre el conjunto; el tamaño se lleva aparte
+    private static class Postings {
+        final Set<String> ids = new ConcurrentSkipListSet<>();
+        final AtomicInteger size = new AtomicInteger();
+    }
+}
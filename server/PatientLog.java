@@ -0,0 +1,283 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Registro de escritura anticipada de pacientes. Cada mutación se añade al final
+ * como un registro con el estado completo del paciente en formato CSV, enmarcado
+ * con su longitud y un CRC32:
+ *
+ * <pre>
+ * [longitud int][crc32 int][tipo byte]["fila CSV" UTF-8]
+ * </pre>
+ *
+ * El tipo es {@code P} para una fila completa o {@code D} para un borrado, cuyo
+ * contenido es solo el ID del paciente.
+ *
+ * El registro se divide en generaciones ({@code patients.<gen>.log}); al compactar se
+ * abre una generación nueva y las anteriores se borran cuando el snapshot CSV que
+ * las cubre ya está en disco. Un registro incompleto o con CRC inválido al final
+ * del archivo es una escritura interrumpida y se descarta al reproducir.
+ *
+ * <p>Las escrituras pasan por un commit en grupo: un hilo junta los registros que
+ * llegan durante {@code genomic.patients.groupCommitMicros} o hasta
+ * {@code genomic.patients.groupCommitMaxBatch}, los escribe juntos y hace un solo
+ * {@link FileChannel#force}. {@link #append} vuelve cuando su lote ya es durable.
+ */
+public class PatientLog implements Closeable {
+    private static final Logger logger = Logger.getLogger(PatientLog.class.getName());
+    private static final byte PUT = 'P';
+    private static final byte DELETE = 'D';
+    private static final int FRAME_HEADER = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 24;
+    private static final long GROUP_COMMIT_MICROS = Long.getLong("genomic.patients.groupCommitMicros", 2000);
+    private static final int GROUP_COMMIT_MAX_BATCH = Integer.getInteger("genomic.patients.groupCommitMaxBatch", 256);
+
+    private final Path directory;
+    private final String prefix;
+    private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private FileChannel channel;
+    private long generation;
+    private long generationBytes;
+    private Thread committer;
+    private volatile boolean closed;
+
+    public PatientLog(Path directory, String prefix) {
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Entrega las filas de todas las generaciones en orden y deja abierta la última
+     * para añadir, recortada hasta el último registro válido.
+     */
+    public synchronized void replay(Consumer<String> puts, Consumer<String> deletes) throws IOException {
+        Files.createDirectories(directory);
+        List<Long> generations = listGenerations();
+        int replayed = 0;
+        for (long gen : generations) {
+            replayed += replayFile(path(gen), puts, deletes);
+        }
+        generation = generations.isEmpty() ? 1 : generations.get(generations.size() - 1);
+        channel = FileChannel.open(path(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        generationBytes = channel.size();
+        channel.position(generationBytes);
+        committer = new Thread(this::commitLoop, "patient-log-commit");
+        committer.setDaemon(true);
+        committer.start();
+        if (replayed > 0) {
+            logger.info("Reproducidos " + replayed + " registros de " + generations.size() + " generaciones del log de pacientes");
+        }
+    }
+
+    /** Añade la fila y espera a que el lote que la contiene esté en disco. */
+    public void append(String csvLine) throws IOException {
+        append(PUT, csvLine);
+    }
+    
+    public void appendDelete(String patientId) throws IOException {
+        append(DELETE, patientId);
+    }
+    
+    private void append(byte type, String content) throws IOException {
+        if (closed) {
+            throw new IOException("Log de pacientes cerrado");
+        }
+        PendingRecord record = new PendingRecord(frame(type, content));
+        pending.add(record);
+        // Si el cierre llegó entre la comprobación y la cola, el hilo de commit puede haber
+        // vaciado ya la cola por última vez; quien saque el registro es quien lo completa
+        if (closed && pending.remove(record)) {
+            throw new IOException("Log de pacientes cerrado");
+        }
+        try {
+            record.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando el commit del log de pacientes");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    public synchronized long size() {
+        return generationBytes;
+    }
+
+    private static ByteBuffer frame(byte type, String content) {
+        byte[] payload = (Character.toString(type) + content).getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        return frame;
+    }
+
+    private void commitLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        while (!closed || !pending.isEmpty()) {
+            try {
+                PendingRecord first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(GROUP_COMMIT_MICROS);
+                while (batch.size() < GROUP_COMMIT_MAX_BATCH) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRecord next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : pending.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                closed = true;
+            } finally {
+                batch.clear();
+            }
+        }
+        // Lo que llegó después del cierre no se escribe
+        for (PendingRecord record; (record = pending.poll()) != null; ) {
+            record.done.completeExceptionally(new IOException("Log de pacientes cerrado"));
+        }
+    }
+
+    private void commit(List<PendingRecord> batch) {
+        ByteBuffer[] frames = new ByteBuffer[batch.size()];
+        long bytes = 0;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = batch.get(i).frame;
+            bytes += frames[i].remaining();
+        }
+        try {
+            synchronized (this) {
+                long written = 0;
+                while (written < bytes) {
+                    written += channel.write(frames);
+                }
+                channel.force(false);
+                generationBytes += bytes;
+            }
+            for (PendingRecord record : batch) {
+                record.done.complete(null);
+            }
+        } catch (IOException e) {
+            logger.severe("Error escribiendo lote de " + batch.size() + " registros de pacientes: " + e.getMessage());
+            for (PendingRecord record : batch) {
+                record.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /** Cierra la generación actual y abre la siguiente; devuelve la generación cerrada. */
+    public synchronized long rotate() throws IOException {
+        long sealed = generation;
+        channel.close();
+        generation++;
+        channel = FileChannel.open(path(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        generationBytes = channel.size();
+        channel.position(generationBytes);
+        return sealed;
+    }
+
+    /** Borra las generaciones ya cubiertas por un snapshot. */
+    public void deleteThrough(long sealed) throws IOException {
+        for (long gen : listGenerations()) {
+            if (gen <= sealed) {
+                Files.deleteIfExists(path(gen));
+            }
+        }
+    }
+
+    /** Escribe lo que ya estaba en cola y cierra el archivo. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (committer != null) {
+            try {
+                committer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    private int replayFile(Path file, Consumer<String> puts, Consumer<String> deletes) throws IOException {
+        int records = 0;
+        long valid = 0;
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(Channels.newInputStream(in)))) {
+            long size = in.size();
+            while (valid + FRAME_HEADER <= size) {
+                int length = data.readInt();
+                int expected = data.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || valid + FRAME_HEADER + length > size) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                data.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+                if (payload[0] == PUT) {
+                    puts.accept(new String(payload, 1, length - 1, StandardCharsets.UTF_8));
+                } else if (payload[0] == DELETE) {
+                    deletes.accept(new String(payload, 1, length - 1, StandardCharsets.UTF_8));
+                }
+                valid += FRAME_HEADER + length;
+                records++;
+            }
+            if (valid < size) {
+                logger.warning("Registro incompleto al final de " + file + ": se descartan " + (size - valid) + " bytes");
+                in.truncate(valid);
+            }
+        }
+        return records;
+    }
+
+    private List<Long> listGenerations() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + ".*.log")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    generations.add(Long.parseLong(name.substring(prefix.length() + 1, name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    logger.warning("Archivo de log ignorado: " + name);
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private static class PendingRecord {
+        final ByteBuffer frame;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingRecord(ByteBuffer frame) {
+            this.frame = frame;
+        }
+    }
+
+    private Path path(long gen) {
+        return directory.resolve(prefix + "." + String.format("%06d", gen) + ".log");
+    }
+}
@@ -1,183 +1,245 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+/**
+ * Alta, cambios y búsqueda de pacientes sobre un {@link PatientStore}. Al arrancar
+ * se recorre el almacén una vez para construir los índices secundarios, la tabla de
+ * documentos y el contador de IDs; los registros completos quedan en el almacén.
+ *
+ * <p>Los pacientes son inmutables: las lecturas no bloquean y cada escritura
+ * reemplaza el registro bajo el candado de su franja, de modo que el orden en el
+ * almacén coincide con el de los índices para cada paciente.
+ *
+ * <p>Los registros pueden quedar fuera del heap ({@code lsm} u {@code offheap}), pero
+ * la tabla de documentos (borrados incluidos) y los índices de {@link PatientIndex}
+ * siguen en el heap con entradas por paciente: unos 650 bytes por paciente con nombres de dos
+ * palabras (190 MB para 300.000). Ese coste, y no el almacén, es el que limita
+ * cuántos pacientes caben.
+ */
 public class PatientManager {
     private static final Logger logger = Logger.getLogger(PatientManager.class.getName());
-    private static final String PATIENTS_CSV = "data/patients.csv";
-    private static final String CSV_HEADER = "patient_id,full_name,document_id,contact_email,registration_date,age,sex,clinical_notes,checksum_fasta,file_size_bytes,disease_id,deleted";
+    private static final int LOCK_STRIPES = 64;
+    /** Sin versión esperada: la actualización se aplica sobre la versión que haya. */
+    public static final long ANY_VERSION = -1;
+    private static final String RESERVED_DOCUMENT = "";
     
-    private Map<String, Patient> patients;
+    private final PatientStore store;
     private Map<String, String> documentIdToPatientId;
     private AtomicLong patientIdCounter;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final PatientIndex index = new PatientIndex();
     
     public PatientManager() {
-        this.patients = new ConcurrentHashMap<>();
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
         this.documentIdToPatientId = new ConcurrentHashMap<>();
         this.patientIdCounter = new AtomicLong(1);
-        loadPatientsFromCsv();
+        this.store = PatientStore.fromSystemProperties();
+        try {
+            store.open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo abrir el almacén de pacientes", e);
+        }
+        store.scan(null, patient -> {
+            applyPatient(patient);
+            return true;
+        });
+        logger.info("Cargados " + index.getActivePatients() + " pacientes activos");
     }
     
     public Patient createPatient(String fullName, String documentId, String contactEmail, 
                                int age, String sex, String clinicalNotes) throws Exception {
-        if (existsByDocumentId(documentId)) {
+        // Se reserva el documento antes de tomar el ID, así un duplicado no gasta ninguno
+        if (documentIdToPatientId.putIfAbsent(documentId, RESERVED_DOCUMENT) != null) {
             throw new IllegalArgumentException("Ya existe paciente con ese documento de identidad");
         }
-        
         String patientId = "P" + String.format("%06d", patientIdCounter.getAndIncrement());
-        Patient patient = new Patient(patientId, fullName, documentId, contactEmail, age, sex, clinicalNotes);
-        
-        patients.put(patientId, patient);
         documentIdToPatientId.put(documentId, patientId);
         
-        savePatientsToCSV();
+        Patient patient = new Patient(patientId, fullName, documentId, contactEmail, age, sex, clinicalNotes);
+        synchronized (lockFor(patientId)) {
+            try {
+                persist(patient);
+            } catch (Exception e) {
+                documentIdToPatientId.remove(documentId, patientId);
+                throw e;
+            }
+            index.update(null, patient);
+        }
         logger.info("Paciente creado: " + patientId);
         
         return patient;
     }
     
     public Patient getPatient(String patientId) {
-        return patients.get(patientId);
+        return store.get(patientId);
     }
     
     public boolean existsByDocumentId(String documentId) {
         return documentIdToPatientId.containsKey(documentId);
     }
     
-    public void updatePatient(Patient patient) throws Exception {
-        patients.put(patient.getPatientId(), patient);
-        savePatientsToCSV();
-        logger.info("Paciente actualizado: " + patient.getPatientId());
+    /**
+     * Aplica {@code change} al paciente activo y persiste el resultado. Con una
+     * versión esperada distinta de {@link #ANY_VERSION}, falla con
+     * {@link IllegalStateException} si otro cliente lo modificó antes.
+     */
+    public Patient updatePatient(String patientId, long expectedVersion, 
+                                 java.util.function.UnaryOperator<Patient> change) throws Exception {
+        synchronized (lockFor(patientId)) {
+            Patient current = store.get(patientId);
+            if (current == null || current.isDeleted()) {
+                throw new IllegalArgumentException("Paciente no encontrado o inactivo");
+            }
+            if (expectedVersion != ANY_VERSION && current.getVersion() != expectedVersion) {
+                throw new IllegalStateException("Conflicto de versión: esperada " + expectedVersion + 
+                                                ", actual " + current.getVersion());
+            }
+            Patient updated = change.apply(current);
+            persist(updated);
+            index.update(current, updated);
+            logger.info("Paciente actualizado: " + patientId + " (versión " + updated.getVersion() + ")");
+            return updated;
+        }
     }
     
     public boolean deletePatient(String patientId) throws Exception {
-        Patient patient = patients.get(patientId);
-        if (patient != null && !patient.isDeleted()) {
-            patient.setDeleted(true);
-            savePatientsToCSV();
+        synchronized (lockFor(patientId)) {
+            Patient patient = store.get(patientId);
+            if (patient == null || patient.isDeleted()) {
+                return false;
+            }
+            Patient deleted = patient.withDeleted(true);
+            persist(deleted);
+            index.update(patient, deleted);
             logger.info("Paciente eliminado: " + patientId);
             return true;
         }
-        return false;
     }
     
-    private void loadPatientsFromCsv() {
-        File csvFile = new File(PATIENTS_CSV);
-        if (!csvFile.exists()) {
-            createDataDirectory();
-            return;
-        }
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(csvFile))) {
-            String line = reader.readLine();
-            long maxId = 0;
-            
-            while ((line = reader.readLine()) != null) {
-                Patient patient = parsePatientFromCsv(line);
-                if (patient != null) {
-                    patients.put(patient.getPatientId(), patient);
-                    documentIdToPatientId.put(patient.getDocumentId(), patient.getPatientId());
-                    
-                    String numericPart = patient.getPatientId().substring(1);
-                    long id = Long.parseLong(numericPart);
-                    maxId = Math.max(maxId, id);
-                }
+    /**
+     * Busca pacientes activos que cumplen todos los criterios de {@code query}. El
+     * índice más selectivo da los candidatos, que se comprueban contra el registro
+     * vivo; el orden es estable entre llamadas, así que {@code offset} pagina.
+     */
+    public List<Patient> searchPatients(PatientQuery query, int offset, int limit) {
+        List<Patient> results = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        for (String patientId : index.candidates(query)) {
+            if (!seen.add(patientId)) {
+                continue;
+            }
+            Patient patient = store.get(patientId);
+            if (patient == null || !query.matches(patient, index)) {
+                continue;
+            }
+            if (skipped++ < offset) {
+                continue;
+            }
+            results.add(patient);
+            if (results.size() == limit) {
+                break;
             }
-            
-            patientIdCounter.set(maxId + 1);
-            logger.info("Cargados " + patients.size() + " pacientes desde CSV");
-            
-        } catch (IOException e) {
-            logger.severe("Error cargando pacientes desde CSV: " + e.getMessage());
         }
+        return results;
     }
     
-    private Patient parsePatientFromCsv(String csvLine) {
-        try {
-            List<String> fields = parseCsvLine(csvLine);
-            if (fields.size() != 12) {
-                logger.warning("Formato de línea CSV inválido: " + csvLine);
-                return null;
-            }
-            
-            return new Patient(
-                fields.get(0),
-                fields.get(1),
-                fields.get(2),
-                fields.get(3),
-                fields.get(4),
-                Integer.parseInt(fields.get(5)),
-                fields.get(6),
-                fields.get(7),
-                fields.get(8).isEmpty() ? null : fields.get(8),
-                Integer.parseInt(fields.get(9)),
-                fields.get(10).isEmpty() ? "" : fields.get(10),
-                Boolean.parseBoolean(fields.get(11))
-            );
-        } catch (Exception e) {
-            logger.warning("Error analizando línea CSV: " + csvLine + " - " + e.getMessage());
-            return null;
-        }
+    public void recordDetection(String patientId, String diseaseId) {
+        index.addDisease(patientId, diseaseId);
     }
     
-    private List<String> parseCsvLine(String line) {
-        List<String> fields = new ArrayList<>();
-        StringBuilder current = new StringBuilder();
-        boolean inQuotes = false;
-        
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            
-            if (c == '"') {
-                if (inQuotes && i + 1 < line.length() && line.charAt(i + 1) == '"') {
-                    current.append('"');
-                    i++; // Skip next quote
-                } else {
-                    inQuotes = !inQuotes;
-                }
-            } else if (c == ',' && !inQuotes) {
-                fields.add(current.toString());
-                current.setLength(0);
-            } else {
-                current.append(c);
-            }
-        }
-        
-        fields.add(current.toString());
-        return fields;
+    private Object lockFor(String patientId) {
+        return locks[(patientId.hashCode() & 0x7fffffff) % LOCK_STRIPES];
     }
     
-    private void savePatientsToCSV() throws Exception {
-        createDataDirectory();
+    private void applyPatient(Patient patient) {
+        index.update(null, patient);
+        documentIdToPatientId.put(patient.getDocumentId(), patient.getPatientId());
         
-        try (PrintWriter writer = new PrintWriter(new FileWriter(PATIENTS_CSV))) {
-            writer.println(CSV_HEADER);
-            
-            for (Patient patient : patients.values()) {
-                writer.println(patient.toCsvString());
-            }
-            
-            logger.info("Guardados " + patients.size() + " pacientes en CSV");
+        long id = Long.parseLong(patient.getPatientId().substring(1));
+        patientIdCounter.accumulateAndGet(id + 1, Math::max);
+    }
+    
+    private void persist(Patient patient) throws Exception {
+        try {
+            store.put(patient);
         } catch (IOException e) {
-            logger.severe("Error guardando pacientes en CSV: " + e.getMessage());
+            logger.severe("Error guardando paciente " + patient.getPatientId() + ": " + e.getMessage());
             throw new Exception("Falló al guardar datos de paciente", e);
         }
     }
     
-    private void createDataDirectory() {
-        File dataDir = new File("data");
-        if (!dataDir.exists()) {
-            dataDir.mkdirs();
+    /**
+     * Hasta {@code limit} pacientes con ID mayor que {@code afterId} (null para empezar
+     * por el primero), en orden numérico de ID ({@link PatientStore#compareIds}) con
+     * cualquier motor. Paginar por el último ID devuelto no salta ni repite pacientes
+     * aunque se creen o borren otros entre páginas: los IDs nuevos siempre son mayores.
+     */
+    public List<Patient> listPatients(String afterId, int limit, boolean includeDeleted) {
+        List<Patient> page = new ArrayList<>();
+        store.scan(afterId, patient -> {
+            if (patient.getPatientId().equals(afterId) || (patient.isDeleted() && !includeDeleted)) {
+                return true;
+            }
+            page.add(patient);
+            return page.size() < limit;
+        });
+        return page;
+    }
+    
+    /**
+     * Escribe en {@code out} los pacientes con el formato de patients.csv, cabecera
+     * incluida, leyendo de un snapshot del almacén: las escrituras siguen mientras
+     * tanto y no aparecen en la exportación. Devuelve el número de filas.
+     */
+    public long exportPatients(OutputStream out, boolean includeDeleted) throws IOException {
+        long[] rows = {0};
+        Writer csv = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try (PatientStore.Snapshot snapshot = store.snapshot()) {
+            csv.write(CsvPatientStore.CSV_HEADER);
+            csv.write('\n');
+            snapshot.scan(null, patient -> {
+                if (patient.isDeleted() && !includeDeleted) {
+                    return true;
+                }
+                try {
+                    csv.write(patient.toCsvString());
+                    csv.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+                return true;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+        csv.flush();
+        return rows[0];
     }
     
+    /** Copia a una lista todo el almacén, borrados incluidos; cuesta memoria proporcional al total. */
     public Collection<Patient> getAllPatients() {
-        return patients.values();
+        List<Patient> all = new ArrayList<>();
+        store.scan(null, all::add);
+        return all;
     }
     
     public int getPatientCount() {
-        return (int) patients.values().stream().filter(p -> !p.isDeleted()).count();
+        return index.getActivePatients();
+    }
+    
+    public void close() {
+        try {
+            store.close();
+        } catch (IOException e) {
+            logger.warning("Error cerrando almacén de pacientes: " + e.getMessage());
+        }
     }
 }
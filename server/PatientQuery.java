@@ -0,0 +1,56 @@
+/**
+ * Criterios de SEARCH_PATIENTS. Todos son opcionales y se combinan con AND; el
+ * nombre se busca como prefijo desde el inicio de cualquier palabra, y email, sexo
+ * y enfermedad se comparan sin distinguir mayúsculas.
+ */
+public class PatientQuery {
+    private final String namePrefix;
+    private final String email;
+    private final String sex;
+    private final String diseaseId;
+    private final int minAge;
+    private final int maxAge;
+    private final String normalizedName;
+
+    public PatientQuery(String namePrefix, String email, String sex, String diseaseId, int minAge, int maxAge) {
+        this.namePrefix = namePrefix;
+        this.email = email;
+        this.sex = sex;
+        this.diseaseId = diseaseId;
+        this.minAge = minAge;
+        this.maxAge = maxAge;
+        this.normalizedName = namePrefix != null ? String.join(" ", PatientIndex.words(namePrefix)) : null;
+    }
+
+    // Primero los criterios baratos; el nombre se normaliza solo si todo lo demás coincide
+    public boolean matches(Patient patient, PatientIndex index) {
+        if (patient.isDeleted() || patient.getAge() < minAge || patient.getAge() > maxAge) {
+            return false;
+        }
+        if (sex != null && !sex.trim().equalsIgnoreCase(patient.getSex().trim())) {
+            return false;
+        }
+        if (email != null && !email.trim().equalsIgnoreCase(patient.getContactEmail().trim())) {
+            return false;
+        }
+        if (diseaseId != null && !index.hasDisease(patient.getPatientId(), diseaseId)) {
+            return false;
+        }
+        if (normalizedName != null) {
+            String name = String.join(" ", PatientIndex.words(patient.getFullName()));
+            return name.startsWith(normalizedName) || name.contains(" " + normalizedName);
+        }
+        return true;
+    }
+
+    public boolean hasAgeRange() {
+        return minAge > Integer.MIN_VALUE || maxAge < Integer.MAX_VALUE;
+    }
+
+    public String getNamePrefix() { return namePrefix; }
+    public String getEmail() { return email; }
+    public String getSex() { return sex; }
+    public String getDiseaseId() { return diseaseId; }
+    public int getMinAge() { return minAge; }
+    public int getMaxAge() { return maxAge; }
+}
@@ -0,0 +1,72 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Predicate;
+
+/**
+ * Almacenamiento de pacientes por ID. {@link PatientManager} guarda aquí el estado
+ * completo de cada paciente y mantiene aparte sus índices; el motor se elige con
+ * {@code genomic.patients.store}: {@code lsm} (por defecto), {@code csv} u
+ * {@code offheap}, que usa los mismos archivos que {@code csv} pero guarda los
+ * registros fuera del heap ({@link OffHeapPatientTable}).
+ *
+ * <p>Las escrituras son durables al volver. Las lecturas fallan con
+ * {@link java.io.UncheckedIOException} si el almacenamiento no se puede leer.
+ */
+public interface PatientStore extends Closeable {
+
+    /** Carga o recupera el estado en disco; se llama una vez antes de usar el almacén. */
+    void open() throws IOException;
+
+    Patient get(String patientId);
+
+    void put(Patient patient) throws IOException;
+
+    /** Quita el registro; los borrados lógicos de pacientes se guardan con {@link #put}. */
+    void delete(String patientId) throws IOException;
+
+    /**
+     * Recorre en el orden de {@link #compareIds} los pacientes desde {@code fromId}
+     * (incluido; null para empezar por el primero) mientras {@code visitor} devuelva true.
+     */
+    void scan(String fromId, Predicate<Patient> visitor);
+
+    /**
+     * Orden de los IDs en todos los motores: primero los más cortos y, a igual
+     * longitud, por texto. Con IDs "P" + número de al menos seis cifras coincide con el
+     * orden numérico, también al pasar de P999999 a P1000000, y con el de
+     * {@link OffHeapPatientTable}, que recorre por número.
+     */
+    static int compareIds(String a, String b) {
+        int byLength = Integer.compare(a.length(), b.length());
+        return byLength != 0 ? byLength : a.compareTo(b);
+    }
+
+    /** Vista fija del estado actual; las escrituras posteriores no se ven en ella. */
+    Snapshot snapshot();
+
+    interface Snapshot extends Closeable {
+        Patient get(String patientId);
+
+        void scan(String fromId, Predicate<Patient> visitor);
+
+        @Override
+        void close();
+    }
+
+    static PatientStore fromSystemProperties() {
+        Path directory = Paths.get("data");
+        String engine = System.getProperty("genomic.patients.store", "lsm");
+        switch (engine) {
+            case "lsm":
+                return new LsmPatientStore(directory);
+            case "csv":
+                return new CsvPatientStore(directory);
+            case "offheap":
+                return new CsvPatientStore(directory, new OffHeapPatientTable());
+            default:
+                throw new IllegalArgumentException("Motor de pacientes desconocido: " + engine);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+import java.util.function.Predicate;
+
+/**
+ * Tabla en memoria de {@link CsvPatientStore}. Por defecto es un mapa ordenado en el
+ * heap; con {@code genomic.patients.store=offheap} es una {@link OffHeapPatientTable}.
+ */
+public interface PatientTable {
+
+    Patient get(String patientId);
+
+    void put(Patient patient);
+
+    void remove(String patientId);
+
+    /** Recorre en orden de ID desde {@code fromId} (null para empezar por el primero). */
+    void scan(String fromId, Predicate<Patient> visitor);
+
+    /** Vista fija del estado actual; el llamador garantiza que no hay escrituras en curso al pedirla. */
+    PatientStore.Snapshot snapshot();
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Re-análisis en segundo plano de todos los FASTA guardados después de un cambio de
+ * catálogo. Solo se buscan las enfermedades nuevas o modificadas desde la última
+ * ejecución completa (según su resumen en {@code data/reanalysis_state.csv}), cada
+ * archivo se lee en streaming por ventanas y las detecciones se registran como las
+ * de un SUBMIT_FASTA. Los hilos son de baja prioridad, limitan los bytes por segundo
+ * y ceden mientras haya análisis de clientes en curso.
+ */
+public class ReanalysisJob {
+    private static final Logger logger = Logger.getLogger(ReanalysisJob.class.getName());
+    private static final String FASTA_DIR = "data/fasta_files/";
+    private static final String STATE_FILE = "data/reanalysis_state.csv";
+    private static final String STATE_HEADER = "disease_id,fingerprint";
+    private static final int THREADS = Integer.getInteger("genomic.reanalysis.threads",
+                                                          Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+    private static final long MAX_BYTES_PER_SECOND = Long.getLong("genomic.reanalysis.maxBytesPerSecond", 32L << 20);
+    private static final long BACKOFF_MILLIS = Long.getLong("genomic.reanalysis.backoffMillis", 100);
+    private static final int THROTTLE_CHUNK_BYTES = 1 << 16;
+
+    public enum State { IDLE, RUNNING, COMPLETED, FAILED }
+
+    private final PatientManager patientManager;
+    private final DiseaseDetector diseaseDetector;
+    private final ServerLogger serverLogger;
+    // Motor en serie: el paralelismo del trabajo lo fijan sus propios hilos
+    private final DetectionEngine engine = new DetectionEngine(1, Integer.MAX_VALUE);
+
+    private volatile State state = State.IDLE;
+    private volatile int filesTotal;
+    private volatile long bytesTotal;
+    private volatile int markers;
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final LongAdder detections = new LongAdder();
+    private long throttleUntil;
+
+    public ReanalysisJob(PatientManager patientManager, DiseaseDetector diseaseDetector, ServerLogger serverLogger) {
+        this.patientManager = patientManager;
+        this.diseaseDetector = diseaseDetector;
+        this.serverLogger = serverLogger;
+    }
+
+    /**
+     * Lanza el trabajo y devuelve cuántas enfermedades se van a buscar, o 0 si todos
+     * los archivos ya se analizaron con el catálogo actual.
+     */
+    public synchronized int start() throws IOException {
+        if (state == State.RUNNING) {
+            throw new IllegalStateException("Ya hay un re-análisis en curso");
+        }
+
+        CatalogSnapshot snapshot = diseaseDetector.getCatalog();
+        Map<String, String> fingerprints = new LinkedHashMap<>();
+        for (DiseaseDetector.Disease disease : snapshot.getDiseases().values()) {
+            fingerprints.put(disease.getDiseaseId(), CatalogSnapshot.diseaseFingerprint(disease));
+        }
+        Map<String, String> analyzed = loadState();
+        List<DiseaseDetector.Disease> changed = new ArrayList<>();
+        for (DiseaseDetector.Disease disease : snapshot.getDiseases().values()) {
+            if (!fingerprints.get(disease.getDiseaseId()).equals(analyzed.get(disease.getDiseaseId()))) {
+                changed.add(disease);
+            }
+        }
+        if (changed.isEmpty()) {
+            return 0;
+        }
+
+        List<Path> files = listFastaFiles();
+        long bytes = 0;
+        for (Path file : files) {
+            bytes += Files.size(file);
+        }
+        CatalogSnapshot subset = new CatalogSnapshot(snapshot.getVersion(), changed, snapshot.getKmerIndex().getK());
+
+        filesTotal = files.size();
+        bytesTotal = bytes;
+        markers = changed.size();
+        filesDone.set(0);
+        bytesDone.set(0);
+        detections.reset();
+        startNanos = System.nanoTime();
+        endNanos = 0;
+        state = State.RUNNING;
+
+        Thread coordinator = new Thread(() -> run(files, subset, fingerprints), "reanalysis");
+        coordinator.setDaemon(true);
+        coordinator.start();
+        logger.info("Re-análisis iniciado: " + files.size() + " archivos, " + changed.size() + " enfermedades nuevas o modificadas");
+        serverLogger.log("Re-análisis iniciado sobre " + files.size() + " archivos FASTA (" + changed.size() + " marcadores)");
+        return changed.size();
+    }
+
+    private void run(List<Path> files, CatalogSnapshot subset, Map<String, String> fingerprints) {
+        ExecutorService workers = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "reanalysis-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        boolean failed = false;
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Path file : files) {
+                pending.add(workers.submit(() -> {
+                    reanalyze(file, subset);
+                    return null;
+                }));
+            }
+            for (Future<?> future : pending) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failed = true;
+                    logger.warning("Error en re-análisis: " + e.getCause().getMessage());
+                }
+            }
+            // Solo una pasada completa da por analizadas las enfermedades
+            if (!failed) {
+                saveState(fingerprints);
+            }
+        } catch (Exception e) {
+            failed = true;
+            logger.severe("Re-análisis interrumpido: " + e.getMessage());
+        } finally {
+            workers.shutdownNow();
+            endNanos = System.nanoTime();
+            state = failed ? State.FAILED : State.COMPLETED;
+        }
+        serverLogger.log("Re-análisis " + (failed ? "terminado con errores" : "completado") + ": " +
+                         filesDone.get() + "/" + filesTotal + " archivos, " + detections.sum() + " detecciones");
+    }
+
+    private void reanalyze(Path file, CatalogSnapshot subset) throws IOException, InterruptedException {
+        String fileName = file.getFileName().toString();
+        String patientId = fileName.substring(0, fileName.length() - ".fasta".length());
+        Patient patient = patientManager.getPatient(patientId);
+        if (patient == null || patient.isDeleted()) {
+            bytesDone.addAndGet(Files.size(file));
+            filesDone.incrementAndGet();
+            return;
+        }
+
+        DiseaseDetector.FastaAnalysis analysis = diseaseDetector.startBackgroundAnalysis(patientId, subset, engine);
+        FastaValidator.StreamingValidator validator = new FastaValidator.StreamingValidator();
+        int records = 0;
+        long unthrottled = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String bases = validator.acceptLine(line);
+                if (validator.getRecordCount() > records) {
+                    records = validator.getRecordCount();
+                    analysis.startRecord(validator.getRecordName());
+                }
+                if (bases != null) {
+                    analysis.append(bases);
+                }
+                unthrottled += line.length() + 1;
+                if (unthrottled >= THROTTLE_CHUNK_BYTES) {
+                    throttle(unthrottled);
+                    bytesDone.addAndGet(unthrottled);
+                    unthrottled = 0;
+                }
+            }
+        }
+        bytesDone.addAndGet(unthrottled);
+
+        List<RecordMatches> results = analysis.finish();
+        for (RecordMatches record : results) {
+            detections.add(record.getMatches().size());
+        }
+        diseaseDetector.reportMatches(patientId, results, null, serverLogger);
+        filesDone.incrementAndGet();
+    }
+
+    // Cede ante los análisis de clientes y reparte el ancho de banda entre todos los hilos
+    private void throttle(long bytes) throws InterruptedException {
+        while (diseaseDetector.getActiveAnalyses() > 0) {
+            Thread.sleep(BACKOFF_MILLIS);
+        }
+        if (MAX_BYTES_PER_SECOND <= 0) {
+            return;
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            throttleUntil = Math.max(throttleUntil, now) + bytes * 1_000_000_000L / MAX_BYTES_PER_SECOND;
+            wait = throttleUntil - now;
+        }
+        TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    private List<Path> listFastaFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path dir = Paths.get(FASTA_DIR);
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.fasta")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private Map<String, String> loadState() throws IOException {
+        Map<String, String> state = new HashMap<>();
+        Path file = Paths.get(STATE_FILE);
+        if (!Files.exists(file)) {
+            return state;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line = reader.readLine(); // Skip header
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length == 2) {
+                    state.put(parts[0], parts[1]);
+                }
+            }
+        }
+        return state;
+    }
+
+    private void saveState(Map<String, String> fingerprints) throws IOException {
+        Path file = Paths.get(STATE_FILE);
+        Path temp = Paths.get(STATE_FILE + ".tmp");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temp))) {
+            writer.println(STATE_HEADER);
+            for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+                writer.println(entry.getKey() + "," + entry.getValue());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public State getState() { return state; }
+    public int getFilesDone() { return filesDone.get(); }
+    public int getFilesTotal() { return filesTotal; }
+    public long getBytesDone() { return bytesDone.get(); }
+    public long getBytesTotal() { return bytesTotal; }
+    public int getMarkers() { return markers; }
+    public long getDetections() { return detections.sum(); }
+
+    public long getBytesPerSecond() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long elapsed = (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+        return elapsed <= 0 ? 0 : bytesDone.get() * 1_000_000_000L / elapsed;
+    }
+
+    /** Segundos restantes al ritmo actual, o -1 si todavía no se puede estimar. */
+    public long getEtaSeconds() {
+        if (state != State.RUNNING) {
+            return 0;
+        }
+        long rate = getBytesPerSecond();
+        return rate == 0 ? -1 : (bytesTotal - bytesDone.get()) / rate;
+    }
+}
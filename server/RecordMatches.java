@@ -0,0 +1,17 @@
+import java.util.*;
+
+/**
+ * Enfermedades detectadas en un registro de un FASTA, en orden de catálogo.
+ */
+public class RecordMatches {
+    private final String recordName;
+    private final List<MarkerMatch> matches;
+
+    public RecordMatches(String recordName, List<MarkerMatch> matches) {
+        this.recordName = recordName;
+        this.matches = matches;
+    }
+
+    public String getRecordName() { return recordName; }
+    public List<MarkerMatch> getMatches() { return matches; }
+}
@@ -0,0 +1,45 @@
+/**
+ * Núcleo escalar: una palabra de 64 bits (32 bases) por iteración con XOR y popcount.
+ */
+final class ScalarSimilarityKernel implements SimilarityKernel {
+    static final long LOW_BITS = 0x5555555555555555L;
+
+    @Override
+    public String name() {
+        return "escalar";
+    }
+
+    @Override
+    public int countMismatches(long[] a, int aOffset, long[] b, int bOffset, int count) {
+        return countScalar(a, aOffset, b, bOffset, count);
+    }
+
+    static int countScalar(long[] a, int aOffset, long[] b, int bOffset, int count) {
+        int mismatches = 0;
+
+        for (int done = 0; done < count; done += PackedSequence.BASES_PER_WORD) {
+            int chunk = Math.min(PackedSequence.BASES_PER_WORD, count - done);
+            long diff = wordAt(a, aOffset + done) ^ wordAt(b, bOffset + done);
+            long lanes = (diff | (diff >>> 1)) & LOW_BITS;
+            if (chunk < PackedSequence.BASES_PER_WORD) {
+                lanes &= (1L << (chunk << 1)) - 1;
+            }
+            mismatches += Long.bitCount(lanes);
+        }
+
+        return mismatches;
+    }
+
+    /** Devuelve las 32 bases que empiezan en {@code baseIndex} como una palabra de 64 bits. */
+    static long wordAt(long[] words, int baseIndex) {
+        long bit = (long) baseIndex << 1;
+        int wordIndex = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+
+        long word = words[wordIndex] >>> shift;
+        if (shift != 0 && wordIndex + 1 < words.length) {
+            word |= words[wordIndex + 1] << (64 - shift);
+        }
+        return word;
+    }
+}
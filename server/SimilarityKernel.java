@@ -0,0 +1,10 @@
+/**
+ * Núcleo de comparación de bases empaquetadas a 2 bits. Cuenta las posiciones cuyo
+ * código difiere entre dos arreglos de palabras; las bases ambiguas se corrigen
+ * aparte en {@link PackedSequence}.
+ */
+interface SimilarityKernel {
+    String name();
+
+    int countMismatches(long[] a, int aOffset, long[] b, int bOffset, int count);
+}
@@ -0,0 +1,79 @@
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Elige el núcleo de comparación al arrancar. Con -Dgenomic.kernel=auto (por defecto)
+ * intenta cargar el núcleo vectorial y lo usa solo si el módulo jdk.incubator.vector
+ * está disponible y da los mismos conteos que el escalar en la auto-verificación.
+ */
+final class SimilarityKernels {
+    private static final Logger logger = Logger.getLogger(SimilarityKernels.class.getName());
+    private static final String VECTOR_KERNEL_CLASS = "VectorSimilarityKernel";
+    private static final int SELF_CHECK_ROUNDS = 2000;
+
+    private static final SimilarityKernel KERNEL = select(System.getProperty("genomic.kernel", "auto"));
+
+    private SimilarityKernels() {
+    }
+
+    static SimilarityKernel get() {
+        return KERNEL;
+    }
+
+    private static SimilarityKernel select(String mode) {
+        SimilarityKernel scalar = new ScalarSimilarityKernel();
+        if ("scalar".equalsIgnoreCase(mode)) {
+            logger.info("Núcleo de similitud seleccionado: " + scalar.name() + " (forzado por configuración)");
+            return scalar;
+        }
+
+        SimilarityKernel vector;
+        try {
+            vector = (SimilarityKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        } catch (Throwable e) {
+            // NoClassDefFoundError si la JVM se lanzó sin --add-modules jdk.incubator.vector
+            logger.info("Vector API no disponible (" + e + "), núcleo de similitud seleccionado: " + scalar.name());
+            return scalar;
+        }
+
+        if (!selfCheck(scalar, vector)) {
+            logger.warning("El núcleo " + vector.name() + " no coincide con el escalar, se usa " + scalar.name());
+            return scalar;
+        }
+
+        logger.info("Núcleo de similitud seleccionado: " + vector.name());
+        return vector;
+    }
+
+    private static boolean selfCheck(SimilarityKernel expected, SimilarityKernel candidate) {
+        Random random = new Random(42);
+        for (int round = 0; round < SELF_CHECK_ROUNDS; round++) {
+            long[] a = randomWords(random, 1 + random.nextInt(64));
+            long[] b = randomWords(random, 1 + random.nextInt(64));
+            // Secuencias casi iguales para ejercitar conteos pequeños además de los aleatorios
+            if (random.nextBoolean()) {
+                b = a.clone();
+                b[random.nextInt(b.length)] ^= 1L << random.nextInt(64);
+            }
+
+            int aBases = a.length * PackedSequence.BASES_PER_WORD;
+            int bBases = b.length * PackedSequence.BASES_PER_WORD;
+            int aOffset = random.nextInt(aBases);
+            int bOffset = random.nextBoolean() ? aOffset % bBases : random.nextInt(bBases);
+            int count = random.nextInt(Math.min(aBases - aOffset, bBases - bOffset) + 1);
+
+            if (expected.countMismatches(a, aOffset, b, bOffset, count) != candidate.countMismatches(a, aOffset, b, bOffset, count)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] randomWords(Random random, int length) {
+        long[] words = new long[length];
+        for (int i = 0; i < length; i++) {
+            words[i] = random.nextLong();
+        }
+        return words;
+    }
+}
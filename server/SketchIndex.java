@@ -0,0 +1,201 @@
+import java.util.*;
+
+/**
+ * Bocetos MinHash (los s hashes de k-mer más pequeños) de cada marcador del
+ * catálogo, como prefiltro alternativo a {@link KmerIndex} para paneles muy
+ * grandes. La contención de un marcador en el paciente se estima como la fracción
+ * de su boceto que aparece entre los k-mers del paciente; solo las N enfermedades
+ * con mayor contención pasan a la búsqueda exacta. Es una estimación: a diferencia
+ * del filtro de k-mers, puede descartar ocurrencias reales.
+ */
+public class SketchIndex {
+    private final int k;
+    private final long kmerMask;
+    private final int topCandidates;
+    private final double minContainment;
+    private final int[] sketchSizes;
+    private final int[] markerLengths;
+    private final long maxSketchHash;
+    private final long[] keys;
+    private final int[] postingStart;
+    private final int[] postingDisease;
+
+    public SketchIndex(List<DiseaseDetector.Disease> diseases, int k, int sketchSize, int topCandidates, double minContainment) {
+        if (k < 1 || k > 31 || sketchSize < 1) {
+            throw new IllegalArgumentException("Parámetros de boceto inválidos: k=" + k + ", s=" + sketchSize);
+        }
+        this.k = k;
+        this.kmerMask = (1L << (2 * k)) - 1;
+        this.topCandidates = topCandidates;
+        this.minContainment = minContainment;
+        this.sketchSizes = new int[diseases.size()];
+        this.markerLengths = new int[diseases.size()];
+
+        long[][] sketches = new long[diseases.size()][];
+        int totalPostings = 0;
+        long largest = 0;
+        for (int ordinal = 0; ordinal < diseases.size(); ordinal++) {
+            PackedSequence sequence = diseases.get(ordinal).getSequence();
+            markerLengths[ordinal] = sequence.length();
+            sketches[ordinal] = bottomHashes(sequence, sketchSize);
+            sketchSizes[ordinal] = sketches[ordinal].length;
+            totalPostings += sketches[ordinal].length;
+            if (sketches[ordinal].length > 0) {
+                largest = Math.max(largest, sketches[ordinal][sketches[ordinal].length - 1]);
+            }
+        }
+        // Ningún k-mer del paciente con hash mayor puede estar en un boceto
+        this.maxSketchHash = largest;
+
+        int capacity = Integer.highestOneBit(Math.max(2, totalPostings) * 2 - 1) << 1;
+        this.keys = new long[capacity];
+        int[] counts = new int[capacity];
+        for (long[] sketch : sketches) {
+            for (long hash : sketch) {
+                counts[insertSlot(hash)]++;
+            }
+        }
+        this.postingStart = new int[capacity + 1];
+        for (int slot = 0; slot < capacity; slot++) {
+            postingStart[slot + 1] = postingStart[slot] + counts[slot];
+        }
+        this.postingDisease = new int[totalPostings];
+        int[] fill = Arrays.copyOf(postingStart, capacity);
+        for (int ordinal = 0; ordinal < sketches.length; ordinal++) {
+            for (long hash : sketches[ordinal]) {
+                postingDisease[fill[findSlot(hash)]++] = ordinal;
+            }
+        }
+    }
+
+    public static SketchIndex fromSystemProperties(List<DiseaseDetector.Disease> diseases, int k) {
+        int sketchSize = Integer.getInteger("genomic.sketch.size", 64);
+        int topCandidates = Integer.getInteger("genomic.sketch.topN", 1000);
+        double minContainment = Double.parseDouble(System.getProperty("genomic.sketch.minContainment", "0.05"));
+        return new SketchIndex(diseases, k, sketchSize, topCandidates, minContainment);
+    }
+
+    /**
+     * Ordena las enfermedades por contención estimada y devuelve como mucho las N
+     * primeras que superan el mínimo. Los marcadores sin k-mers válidos o más largos
+     * que el paciente pasan siempre, igual que en el filtro de k-mers.
+     */
+    public CandidateSet findCandidates(PackedSequence patientSequence) {
+        int[] shared = countSharedHashes(patientSequence);
+        double[] containment = new double[sketchSizes.length];
+        BitSet candidates = new BitSet(sketchSizes.length);
+        Integer[] ranked = new Integer[sketchSizes.length];
+        int rankedCount = 0;
+
+        for (int ordinal = 0; ordinal < sketchSizes.length; ordinal++) {
+            if (sketchSizes[ordinal] == 0 || markerLengths[ordinal] > patientSequence.length()) {
+                candidates.set(ordinal);
+                containment[ordinal] = Double.MAX_VALUE;
+                continue;
+            }
+            containment[ordinal] = (double) shared[ordinal] / sketchSizes[ordinal];
+            if (shared[ordinal] > 0 && containment[ordinal] >= minContainment) {
+                ranked[rankedCount++] = ordinal;
+            }
+        }
+
+        Arrays.sort(ranked, 0, rankedCount, (a, b) -> {
+            int byContainment = Double.compare(containment[b], containment[a]);
+            return byContainment != 0 ? byContainment : Integer.compare(a, b);
+        });
+        for (int i = 0; i < Math.min(rankedCount, topCandidates); i++) {
+            candidates.set(ranked[i]);
+        }
+
+        return CandidateSet.ranked(candidates, containment);
+    }
+
+    private int[] countSharedHashes(PackedSequence sequence) {
+        BitSet hitSlots = new BitSet(keys.length);
+        long kmer = 0;
+        int valid = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            int code = sequence.codeAt(i);
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & kmerMask;
+            if (++valid < k) {
+                continue;
+            }
+            long hash = hash(kmer);
+            if (hash <= maxSketchHash) {
+                int slot = findSlot(hash);
+                if (slot >= 0) {
+                    hitSlots.set(slot);
+                }
+            }
+        }
+
+        int[] shared = new int[sketchSizes.length];
+        for (int slot = hitSlots.nextSetBit(0); slot >= 0; slot = hitSlots.nextSetBit(slot + 1)) {
+            for (int p = postingStart[slot]; p < postingStart[slot + 1]; p++) {
+                shared[postingDisease[p]]++;
+            }
+        }
+        return shared;
+    }
+
+    // Los s hashes distintos más pequeños de los k-mers sin bases ambiguas, ordenados
+    private long[] bottomHashes(PackedSequence sequence, int sketchSize) {
+        long[] hashes = new long[Math.max(0, sequence.length() - k + 1)];
+        int count = 0;
+        long kmer = 0;
+        int valid = 0;
+        for (int i = 0; i < sequence.length(); i++) {
+            int code = sequence.codeAt(i);
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & kmerMask;
+            if (++valid >= k) {
+                hashes[count++] = hash(kmer);
+            }
+        }
+
+        Arrays.sort(hashes, 0, count);
+        long[] sketch = new long[Math.min(count, sketchSize)];
+        int size = 0;
+        for (int i = 0; i < count && size < sketch.length; i++) {
+            if (i == 0 || hashes[i] != hashes[i - 1]) {
+                sketch[size++] = hashes[i];
+            }
+        }
+        return Arrays.copyOf(sketch, size);
+    }
+
+    // No negativo, para que el orden de los hashes sea el orden con signo de long
+    private static long hash(long kmer) {
+        return KmerIndex.mix(kmer) >>> 1;
+    }
+
+    // Las claves se guardan desplazadas en 1 para que 0 marque una celda vacía
+    private int insertSlot(long hash) {
+        int mask = keys.length - 1;
+        int slot = (int) KmerIndex.mix(hash) & mask;
+        while (keys[slot] != 0 && keys[slot] != hash + 1) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = hash + 1;
+        return slot;
+    }
+
+    private int findSlot(long hash) {
+        int mask = keys.length - 1;
+        int slot = (int) KmerIndex.mix(hash) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == hash + 1) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,56 @@
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Núcleo SIMD con la Vector API: compara un vector de palabras (p. ej. 4 u 8 palabras,
+ * 128 o 256 bases) por iteración. Requiere {@code --add-modules jdk.incubator.vector};
+ * solo se carga por reflexión desde {@link SimilarityKernels}.
+ */
+final class VectorSimilarityKernel implements SimilarityKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public String name() {
+        return "vectorial (" + SPECIES.length() + " palabras, " +
+               SPECIES.length() * PackedSequence.BASES_PER_WORD + " bases por iteración)";
+    }
+
+    @Override
+    public int countMismatches(long[] a, int aOffset, long[] b, int bOffset, int count) {
+        int lanes = SPECIES.length();
+        int basesPerStep = lanes * PackedSequence.BASES_PER_WORD;
+        int aWord = aOffset >>> 5;
+        int aShift = (aOffset & 31) << 1;
+        int bWord = bOffset >>> 5;
+        int bShift = (bOffset & 31) << 1;
+        // Con desplazamiento se lee también la palabra siguiente a cada carril
+        int aLimit = a.length - lanes - (aShift != 0 ? 1 : 0);
+        int bLimit = b.length - lanes - (bShift != 0 ? 1 : 0);
+
+        LongVector accumulator = LongVector.zero(SPECIES);
+        int done = 0;
+        while (count - done >= basesPerStep && aWord <= aLimit && bWord <= bLimit) {
+            LongVector diff = load(a, aWord, aShift).lanewise(VectorOperators.XOR, load(b, bWord, bShift));
+            LongVector differing = diff.lanewise(VectorOperators.OR, diff.lanewise(VectorOperators.LSHR, 1))
+                                       .lanewise(VectorOperators.AND, ScalarSimilarityKernel.LOW_BITS);
+            accumulator = accumulator.add(differing.lanewise(VectorOperators.BIT_COUNT));
+            aWord += lanes;
+            bWord += lanes;
+            done += basesPerStep;
+        }
+
+        int mismatches = (int) accumulator.reduceLanes(VectorOperators.ADD);
+        return mismatches + ScalarSimilarityKernel.countScalar(a, aOffset + done, b, bOffset + done, count - done);
+    }
+
+    private static LongVector load(long[] words, int wordIndex, int shift) {
+        LongVector low = LongVector.fromArray(SPECIES, words, wordIndex);
+        if (shift == 0) {
+            return low;
+        }
+        LongVector high = LongVector.fromArray(SPECIES, words, wordIndex + 1);
+        return low.lanewise(VectorOperators.LSHR, shift)
+                  .lanewise(VectorOperators.OR, high.lanewise(VectorOperators.LSHL, 64 - shift));
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Alineamiento en banda con huecos afines: puntuaciones calculadas a mano con
+ * coincidencia +2, discrepancia -3 y hueco de 7 la primera base y 2 cada una más.
+ * Los flancos son N, que no coinciden con nada, y ninguna mitad del marcador repite
+ * una base contigua, así que un desplazamiento de una o dos bases no suma.
+ */
+public class BandedAlignerTest {
+    private static final String LEFT = "ACGTCAGTAC";
+    private static final String RIGHT = "GATCGTACTG";
+    private static final String MARKER = LEFT + RIGHT;
+    private static final String FLANK = "NNNNN";
+
+    public static void main(String[] args) {
+        // Coincidencia exacta: 20 bases a +2
+        checkAlignment(MARKER, 2, 40, 20, 5, 25, "exacta");
+        // Una discrepancia en medio: 19 * 2 - 3 supera a cualquiera de las dos mitades
+        checkAlignment(LEFT + "C" + RIGHT.substring(1), 2, 35, 19, 5, 25, "discrepancia");
+        // Inserción de una base: 40 - 7
+        checkAlignment(LEFT + "N" + RIGHT, 2, 33, 20, 5, 26, "inserción de 1");
+        // Inserción de dos bases: abrir una vez y extender, 40 - 9, no 40 - 14
+        checkAlignment(LEFT + "NN" + RIGHT, 2, 31, 20, 5, 27, "inserción de 2");
+        // Dos inserciones de una base separadas: dos aperturas, 40 - 14
+        checkAlignment(MARKER.substring(0, 7) + "N" + MARKER.substring(7, 14) + "N" + MARKER.substring(14), 2,
+                       26, 20, 5, 27, "dos inserciones");
+        // Deleción de una base del marcador: 19 * 2 - 7
+        checkAlignment(LEFT + RIGHT.substring(1), 2, 31, 19, 5, 24, "deleción de 1");
+        // Con banda 1 el desvío de dos bases no cabe: queda solo la mitad izquierda
+        checkAlignment(LEFT + "NN" + RIGHT, 1, 20, 10, 5, 15, "inserción fuera de la banda");
+        // Con banda 0 ni siquiera cabe una
+        checkAlignment(LEFT + "N" + RIGHT, 0, 20, 10, 5, 15, "inserción con banda 0");
+
+        PackedSequence unknown = PackedSequence.encode(FLANK + "NNNNNNNNNNNNNNNNNNNN" + FLANK);
+        check(BandedAligner.align(unknown, 5, PackedSequence.encode(MARKER), 2) == null, "alineamiento sin coincidencias");
+        System.out.println("BandedAlignerTest OK");
+    }
+
+    private static void checkAlignment(String occurrence, int band, int score, int matches, int start, int end, String name) {
+        PackedSequence patient = PackedSequence.encode(FLANK + occurrence + FLANK);
+        BandedAligner.Result result = BandedAligner.align(patient, FLANK.length(), PackedSequence.encode(MARKER), band);
+        check(result != null && result.score == score && result.matches == matches && result.start == start && result.end == end,
+              name + ": " + (result == null ? null : "puntuación " + result.score + ", " + result.matches +
+                             " coincidencias, [" + result.start + ", " + result.end + ")") +
+              ", esperado " + score + ", " + matches + ", [" + start + ", " + end + ")");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Tabla con versiones del motor csv: un snapshot que se abre mientras otros se cierran
+ * y se escribe debe ver todos los pacientes, sin que la poda quite la versión que le toca.
+ */
+public class CsvPatientStoreTest {
+    private static final int PATIENTS = 50;
+
+    public static void main(String[] args) throws Exception {
+        scanOrderMatchesOffHeap();
+        snapshotsSurviveConcurrentPruning();
+        System.out.println("CsvPatientStoreTest OK");
+    }
+
+    // Al pasar de seis a siete cifras ambos motores siguen el orden numérico
+    private static void scanOrderMatchesOffHeap() {
+        List<PatientTable> tables = List.of(new CsvPatientStore.MapTable(), new OffHeapPatientTable());
+        List<List<String>> orders = new ArrayList<>();
+        for (PatientTable table : tables) {
+            for (int id : new int[] {1_000_001, 999_998, 1_000_000, 2, 999_999}) {
+                table.put(patient(id, "v"));
+            }
+            List<String> order = new ArrayList<>();
+            table.scan("P999999", patient -> order.add(patient.getPatientId()));
+            orders.add(order);
+        }
+        check(orders.get(0).equals(List.of("P999999", "P1000000", "P1000001")), "orden csv: " + orders.get(0));
+        check(orders.get(1).equals(orders.get(0)), "orden fuera del heap: " + orders.get(1));
+    }
+
+    private static void snapshotsSurviveConcurrentPruning() throws Exception {
+        CsvPatientStore.MapTable table = new CsvPatientStore.MapTable();
+        for (int i = 0; i < PATIENTS; i++) {
+            table.put(patient(i, "v0"));
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong incomplete = new AtomicLong();
+        AtomicLong snapshots = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < 2; w++) {
+            threads.add(new Thread(() -> {
+                Random random = new Random();
+                for (int i = 0; !stop.get(); i++) {
+                    table.put(patient(random.nextInt(PATIENTS), "v" + i));
+                }
+            }));
+        }
+        for (int r = 0; r < 4; r++) {
+            threads.add(new Thread(() -> {
+                while (!stop.get()) {
+                    try (PatientStore.Snapshot snapshot = table.snapshot()) {
+                        int[] seen = {0};
+                        snapshot.scan(null, patient -> {
+                            seen[0]++;
+                            return true;
+                        });
+                        if (seen[0] != PATIENTS) {
+                            incomplete.incrementAndGet();
+                        }
+                    }
+                    snapshots.incrementAndGet();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(3000);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(incomplete.get() == 0, incomplete.get() + " de " + snapshots.get() + " snapshots perdieron pacientes");
+    }
+
+    private static Patient patient(int id, String notes) {
+        return new Patient(String.format("P%06d", id), "Paciente " + id, "DOC" + id, "p" + id + "@example.com", 30, "F", notes);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import java.util.*;
+
+/** Prefiltro de k-mers: no debe descartar enfermedades que el umbral del 85% detecta. */
+public class KmerIndexTest {
+    private static final String D001 = "ACGTACGTGGCCTTAAACCGGTAGCTAGCTAGGCTAACGTACGTGGCCTTAAACCGGTAGCTAGCTAGGCTA";
+
+    public static void main(String[] args) {
+        spreadMutationsKeepCandidate();
+        unrelatedSequenceIsDiscarded();
+        System.out.println("KmerIndexTest OK");
+    }
+
+    // Una sustitución cada 11 bases rompe todos los 11-mers, pero 66/72 supera el umbral
+    private static void spreadMutationsKeepCandidate() {
+        StringBuilder patient = new StringBuilder(D001);
+        for (int position = 10; position < patient.length(); position += 11) {
+            patient.setCharAt(position, patient.charAt(position) == 'A' ? 'C' : 'A');
+        }
+        KmerIndex index = new KmerIndex(List.of(disease("D001", D001)), 11);
+        PackedSequence sequence = PackedSequence.encode(patient);
+
+        CandidateSet candidates = index.findCandidates(sequence);
+        check(candidates.getOrdinals().get(0), "D001 descartada por el prefiltro");
+
+        List<MarkerMatch> matches = new MarkerSearch(index).search(sequence, candidates);
+        check(matches.size() == 1, "D001 no detectada: " + matches.size() + " coincidencias");
+        check(Math.abs(matches.get(0).getBestSimilarity() - 66.0 / 72) < 1e-9,
+              "similitud inesperada: " + matches.get(0).getBestSimilarity());
+    }
+
+    // Con un presupuesto de ediciones pequeño la cota es positiva y el filtro sigue descartando
+    private static void unrelatedSequenceIsDiscarded() {
+        Random random = new Random(1);
+        String marker = randomBases(random, 400);
+        DiseaseDetector.Disease disease = new DiseaseDetector.Disease("D900", "D900", 1, PackedSequence.encode(marker),
+                                                                      DetectionMode.EDIT, 3);
+        KmerIndex index = new KmerIndex(List.of(disease), 11);
+        CandidateSet candidates = index.findCandidates(PackedSequence.encode(randomBases(random, 2000)));
+        check(candidates.isEmpty(), "secuencia sin relación no descartada");
+    }
+
+    static DiseaseDetector.Disease disease(String id, String bases) {
+        return new DiseaseDetector.Disease(id, id, 1, PackedSequence.encode(bases));
+    }
+
+    static String randomBases(Random random, int length) {
+        StringBuilder bases = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bases.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return bases.toString();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
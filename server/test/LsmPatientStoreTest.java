@@ -0,0 +1,130 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Almacén LSM con una tabla en memoria de 4 KiB: lecturas, recorridos y un snapshot
+ * tomado antes de que sus tablas se vuelquen y sus segmentos se compacten deben dar
+ * lo mismo que un mapa ordenado con las mismas escrituras.
+ */
+public class LsmPatientStoreTest {
+
+    public static void main(String[] args) throws Exception {
+        // Se leen al cargar la clase del almacén
+        System.setProperty("genomic.lsm.memtableBytes", "4096");
+        System.setProperty("genomic.lsm.compactionFanout", "4");
+        Path directory = Files.createTempDirectory("lsm-store-test");
+        try {
+            readsAcrossFlushAndCompaction(directory);
+        } finally {
+            PatientLogTest.deleteRecursively(directory);
+        }
+        System.out.println("LsmPatientStoreTest OK");
+    }
+
+    private static void readsAcrossFlushAndCompaction(Path directory) throws Exception {
+        Random random = new Random(23);
+        TreeMap<String, Patient> expected = new TreeMap<>(PatientStore::compareIds);
+        LsmPatientStore store = new LsmPatientStore(directory);
+        store.open();
+        write(store, expected, random, 600);
+        Set<String> segmentsBefore = awaitSegments(directory);
+
+        PatientStore.Snapshot snapshot = store.snapshot();
+        TreeMap<String, Patient> expectedAtSnapshot = new TreeMap<>(expected);
+        write(store, expected, random, 2000);
+        awaitCompactionOf(directory, segmentsBefore);
+
+        checkReads(snapshot::get, snapshot::scan, expectedAtSnapshot, "snapshot");
+        snapshot.close();
+        checkReads(store::get, store::scan, expected, "almacén");
+        store.close();
+
+        // Al reabrir, lo que quedó en el log y en los segmentos da el mismo estado
+        store = new LsmPatientStore(directory);
+        store.open();
+        checkReads(store::get, store::scan, expected, "almacén reabierto");
+        store.close();
+    }
+
+    // Altas, cambios y borrados sobre 400 IDs, la mitad de siete cifras, en orden aleatorio
+    private static void write(LsmPatientStore store, TreeMap<String, Patient> expected, Random random, int writes)
+            throws Exception {
+        for (int i = 0; i < writes; i++) {
+            String patientId = id(1 + random.nextInt(400));
+            if (random.nextInt(5) == 0) {
+                store.delete(patientId);
+                expected.remove(patientId);
+            } else {
+                Patient patient = new Patient(patientId, "Paciente " + i, "DOC" + patientId, "p" + i + "@example.com",
+                                              20 + random.nextInt(60), random.nextBoolean() ? "M" : "F", "Nota " + i);
+                store.put(patient);
+                expected.put(patientId, patient);
+            }
+        }
+    }
+
+    private static void checkReads(Function<String, Patient> get, BiConsumer<String, Predicate<Patient>> scan,
+                                   TreeMap<String, Patient> expected, String source) {
+        for (int n = 1; n <= 400; n++) {
+            String patientId = id(n);
+            Patient patient = get.apply(patientId);
+            Patient wanted = expected.get(patientId);
+            check(wanted == null ? patient == null : patient != null && patient.toCsvString().equals(wanted.toCsvString()),
+                  source + ": " + patientId + " es " + (patient == null ? null : patient.toCsvString()) +
+                  ", esperado " + (wanted == null ? null : wanted.toCsvString()));
+        }
+        for (String fromId : new String[] {null, "P000150", "P000150x", "P999999", "P1000150", "P9999999"}) {
+            List<String> scanned = new ArrayList<>();
+            scan.accept(fromId, patient -> scanned.add(patient.toCsvString()));
+            List<String> wanted = new ArrayList<>();
+            for (Patient patient : (fromId == null ? expected : expected.tailMap(fromId, true)).values()) {
+                wanted.add(patient.toCsvString());
+            }
+            check(scanned.equals(wanted), source + ": recorrido desde " + fromId + " con " + scanned.size() +
+                  " pacientes, esperados " + wanted.size());
+        }
+    }
+
+    // P000001..P000200 y P1000001..P1000200: en orden de texto, P1000001 iría antes que P000002
+    private static String id(int n) {
+        return String.format("P%06d", n <= 200 ? n : 999_800 + n);
+    }
+
+    // Los volcados van en segundo plano
+    private static Set<String> awaitSegments(Path directory) throws Exception {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        Set<String> segments;
+        while ((segments = manifest(directory)).isEmpty()) {
+            check(System.nanoTime() < deadline, "ninguna tabla volcada antes del snapshot");
+            Thread.sleep(20);
+        }
+        return segments;
+    }
+
+    // La compactación sustituye en el manifiesto algún segmento que el snapshot retiene
+    private static void awaitCompactionOf(Path directory, Set<String> segments) throws Exception {
+        long deadline = System.nanoTime() + 30_000_000_000L;
+        while (manifest(directory).containsAll(segments)) {
+            check(System.nanoTime() < deadline, "no se compactó ningún segmento anterior al snapshot");
+            Thread.sleep(20);
+        }
+    }
+
+    private static Set<String> manifest(Path directory) throws Exception {
+        Set<String> segments = new HashSet<>();
+        for (String line : Files.readAllLines(directory.resolve("patients-lsm").resolve("MANIFEST"), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                segments.add(line.trim());
+            }
+        }
+        return segments;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.*;
+
+/** Búsqueda en cualquier desplazamiento: debe dar las mismas ocurrencias que comparar en todas las posiciones. */
+public class MarkerSearchTest {
+    private static final String D001 = "ACGTACGTGGCCTTAAACCGGTAGCTAGCTAGGCTAACGTACGTGGCCTTAAACCGGTAGCTAGCTAGGCTA";
+
+    public static void main(String[] args) {
+        spreadMutationsAtInteriorOffset();
+        matchesExhaustiveComparison();
+        alignmentMatchesEveryDiagonal();
+        System.out.println("MarkerSearchTest OK");
+    }
+
+    // Diez sustituciones cada 7 bases: ningún 11-mer queda exacto y la similitud es 62/72
+    private static void spreadMutationsAtInteriorOffset() {
+        Random random = new Random(5);
+        StringBuilder patient = new StringBuilder(KmerIndexTest.randomBases(random, 3000));
+        int offset = 1234;
+        for (int i = 0; i < D001.length(); i++) {
+            char base = D001.charAt(i);
+            patient.setCharAt(offset + i, i % 7 == 3 ? (base == 'A' ? 'C' : 'A') : base);
+        }
+        KmerIndex index = new KmerIndex(List.of(KmerIndexTest.disease("D001", D001)), 11);
+        PackedSequence sequence = PackedSequence.encode(patient);
+
+        List<MarkerMatch> matches = new MarkerSearch(index).search(sequence, index.findCandidates(sequence));
+        check(matches.size() == 1 && matches.get(0).getOffsets().contains(offset),
+              "D001 no encontrada en " + offset + ": " + matches);
+    }
+
+    private static void matchesExhaustiveComparison() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 60; trial++) {
+            List<DiseaseDetector.Disease> diseases = new ArrayList<>();
+            List<String> markers = new ArrayList<>();
+            for (int d = 0; d < 4; d++) {
+                markers.add(KmerIndexTest.randomBases(random, 8 + random.nextInt(120)));
+                diseases.add(KmerIndexTest.disease("D" + d, markers.get(d)));
+            }
+            StringBuilder patient = new StringBuilder(KmerIndexTest.randomBases(random, 4000));
+            for (String marker : markers) {
+                int offset = random.nextInt(patient.length() - marker.length());
+                for (int i = 0; i < marker.length(); i++) {
+                    char base = marker.charAt(i);
+                    patient.setCharAt(offset + i, random.nextInt(100) < 12 ? "ACGT".charAt(random.nextInt(4)) : base);
+                }
+            }
+
+            KmerIndex index = new KmerIndex(diseases, 11);
+            PackedSequence sequence = PackedSequence.encode(patient);
+            Map<String, Set<Integer>> found = new HashMap<>();
+            for (MarkerMatch match : new MarkerSearch(index).search(sequence, index.findCandidates(sequence))) {
+                found.put(match.getDisease().getDiseaseId(), match.getOffsets());
+            }
+            for (int d = 0; d < markers.size(); d++) {
+                Set<Integer> expected = exhaustive(patient, markers.get(d));
+                Set<Integer> actual = found.getOrDefault("D" + d, Set.of());
+                check(expected.equals(actual), "ensayo " + trial + ", D" + d + ": esperado " + expected + ", obtenido " + actual);
+            }
+        }
+    }
+
+    // ALIGN con sustituciones, inserciones y deleciones: la cota de la LCS no debe descartar ninguna diagonal buena
+    private static void alignmentMatchesEveryDiagonal() {
+        Random random = new Random(6);
+        for (int trial = 0; trial < 40; trial++) {
+            List<DiseaseDetector.Disease> diseases = new ArrayList<>();
+            StringBuilder patient = new StringBuilder(KmerIndexTest.randomBases(random, 3000));
+            for (int d = 0; d < 3; d++) {
+                String marker = KmerIndexTest.randomBases(random, 8 + random.nextInt(120));
+                diseases.add(new DiseaseDetector.Disease("D" + d, "Alineada " + d, 1, PackedSequence.encode(marker),
+                                                         DetectionMode.ALIGN, random.nextInt(9)));
+                for (int copy = 0; copy < 3; copy++) {
+                    StringBuilder mutated = new StringBuilder(marker);
+                    for (int edit = random.nextInt(1 + marker.length() / 8); edit > 0; edit--) {
+                        int at = random.nextInt(mutated.length());
+                        switch (random.nextInt(3)) {
+                            case 0: mutated.setCharAt(at, "ACGT".charAt(random.nextInt(4))); break;
+                            case 1: mutated.deleteCharAt(at); break;
+                            default: mutated.insert(at, "ACGT".charAt(random.nextInt(4)));
+                        }
+                    }
+                    int offset = random.nextInt(patient.length() - mutated.length());
+                    patient.replace(offset, offset + mutated.length(), mutated.toString());
+                }
+            }
+
+            KmerIndex index = new KmerIndex(diseases, 11);
+            PackedSequence sequence = PackedSequence.encode(patient);
+            Map<String, Set<Integer>> found = new HashMap<>();
+            for (MarkerMatch match : new MarkerSearch(index).search(sequence, index.findCandidates(sequence))) {
+                found.put(match.getDisease().getDiseaseId(), match.getOffsets());
+            }
+            for (DiseaseDetector.Disease disease : diseases) {
+                Set<Integer> expected = new TreeSet<>();
+                PackedSequence marker = disease.getSequence();
+                int band = disease.getModeParameter();
+                for (int diagonal = 0; diagonal < sequence.length() - marker.length() + 1 + band; diagonal++) {
+                    BandedAligner.Result alignment = BandedAligner.align(sequence, diagonal, marker, band);
+                    if (alignment != null && (double) alignment.matches / marker.length() >= MarkerSearch.IDENTITY_THRESHOLD) {
+                        expected.add(alignment.start);
+                    }
+                }
+                Set<Integer> actual = found.getOrDefault(disease.getDiseaseId(), Set.of());
+                check(expected.equals(actual), "ensayo " + trial + ", " + disease.getDiseaseId() + " (banda " + band +
+                      "): esperado " + expected + ", obtenido " + actual);
+            }
+        }
+    }
+
+    private static Set<Integer> exhaustive(CharSequence patient, String marker) {
+        Set<Integer> offsets = new TreeSet<>();
+        for (int offset = 0; offset + marker.length() <= patient.length(); offset++) {
+            int same = 0;
+            for (int i = 0; i < marker.length(); i++) {
+                if (patient.charAt(offset + i) == marker.charAt(i)) {
+                    same++;
+                }
+            }
+            if ((double) same / marker.length() >= MarkerSearch.IDENTITY_THRESHOLD) {
+                offsets.add(offset);
+            }
+        }
+        return offsets;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.*;
+
+/**
+ * Búsqueda de Myers: debe notificar los mismos tramos que una programación dinámica
+ * semiglobal sin vectores de bits, también con marcadores de 63, 64 y 65 bases (uno,
+ * justo uno y más de un bloque), sin errores permitidos y con más errores que bases.
+ */
+public class MyersMatcherTest {
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        for (int length : new int[] {1, 5, 63, 64, 65, 127, 128, 130}) {
+            for (int trial = 0; trial < 40; trial++) {
+                String marker = bases(random, length);
+                String patient = patientWithCopies(random, marker);
+                int[] distances = semiGlobal(marker, patient);
+                for (int maxEdits : new int[] {0, 1 + random.nextInt(Math.max(1, length / 4)), length, length + 3}) {
+                    List<int[]> expected = runs(distances, maxEdits);
+                    List<int[]> actual = new ArrayList<>();
+                    MyersMatcher matcher = new MyersMatcher(PackedSequence.encode(marker));
+                    PackedSequence sequence = PackedSequence.encode(patient);
+                    matcher.scan(sequence, 0, patient.length(), maxEdits, (end, distance) -> actual.add(new int[] {end, distance}));
+                    check(same(expected, actual), length + " bases, k=" + maxEdits + ": esperado " + show(expected) +
+                          ", obtenido " + show(actual));
+
+                    // Por tramos contiguos sale lo mismo que de una vez
+                    List<int[]> split = new ArrayList<>();
+                    int cut = random.nextInt(patient.length() + 1);
+                    matcher.scan(sequence, 0, cut, maxEdits, (end, distance) -> split.add(new int[] {end, distance}));
+                    matcher.scan(sequence, cut, patient.length(), maxEdits, (end, distance) -> split.add(new int[] {end, distance}));
+                    check(same(expected, split), length + " bases, k=" + maxEdits + ", corte en " + cut + ": esperado " +
+                          show(expected) + ", obtenido " + show(split));
+                }
+            }
+        }
+        System.out.println("MyersMatcherTest OK");
+    }
+
+    // Bases al azar con alguna copia del marcador con sustituciones, inserciones y deleciones
+    private static String patientWithCopies(Random random, String marker) {
+        StringBuilder patient = new StringBuilder(bases(random, 100 + random.nextInt(400)));
+        for (int copy = random.nextInt(4); copy > 0; copy--) {
+            StringBuilder mutated = new StringBuilder(marker);
+            for (int edit = random.nextInt(1 + marker.length() / 10); edit > 0 && mutated.length() > 1; edit--) {
+                int at = random.nextInt(mutated.length());
+                switch (random.nextInt(3)) {
+                    case 0: mutated.setCharAt(at, "ACGT".charAt(random.nextInt(4))); break;
+                    case 1: mutated.deleteCharAt(at); break;
+                    default: mutated.insert(at, "ACGT".charAt(random.nextInt(4)));
+                }
+            }
+            patient.insert(random.nextInt(patient.length() + 1), mutated);
+        }
+        return patient.toString();
+    }
+
+    // Algunas N, que no coinciden con nada ni en el marcador ni en el paciente
+    private static String bases(Random random, int length) {
+        StringBuilder bases = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bases.append(random.nextInt(50) == 0 ? 'N' : "ACGT".charAt(random.nextInt(4)));
+        }
+        return bases.toString();
+    }
+
+    // Distancia mínima entre el marcador y alguna subcadena del paciente que termina en cada posición
+    private static int[] semiGlobal(String marker, String patient) {
+        int m = marker.length();
+        int[] column = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            column[i] = i;
+        }
+        int[] distances = new int[patient.length()];
+        for (int j = 0; j < patient.length(); j++) {
+            int diagonal = column[0];
+            column[0] = 0;
+            for (int i = 1; i <= m; i++) {
+                char base = marker.charAt(i - 1);
+                int substitution = base != 'N' && base == patient.charAt(j) ? 0 : 1;
+                int value = Math.min(diagonal + substitution, Math.min(column[i] + 1, column[i - 1] + 1));
+                diagonal = column[i];
+                column[i] = value;
+            }
+            distances[j] = column[m];
+        }
+        return distances;
+    }
+
+    // Cada tramo de posiciones consecutivas con distancia <= k, con su primera posición de distancia mínima
+    private static List<int[]> runs(int[] distances, int maxEdits) {
+        List<int[]> runs = new ArrayList<>();
+        int best = -1;
+        for (int j = 0; j <= distances.length; j++) {
+            if (j < distances.length && distances[j] <= maxEdits) {
+                if (best < 0 || distances[j] < distances[best]) {
+                    best = j;
+                }
+            } else if (best >= 0) {
+                runs.add(new int[] {best, distances[best]});
+                best = -1;
+            }
+        }
+        return runs;
+    }
+
+    private static boolean same(List<int[]> expected, List<int[]> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (!Arrays.equals(expected.get(i), actual.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String show(List<int[]> hits) {
+        StringBuilder text = new StringBuilder("[");
+        for (int[] hit : hits) {
+            text.append(text.length() > 1 ? ", " : "").append(hit[0]).append(':').append(hit[1]);
+        }
+        return text.append(']').toString();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.*;
+
+/**
+ * Tabla fuera del heap: al borrar de un grupo de claves que chocan en la misma celda,
+ * incluido uno que da la vuelta al final de la tabla, las demás siguen encontrándose.
+ */
+public class OffHeapPatientTableTest {
+    // Capacidad inicial del índice; la prueba no pasa del 60% para que no crezca
+    private static final int CAPACITY = 1024;
+
+    public static void main(String[] args) {
+        // Se lee al cargar la clase de la tabla
+        System.setProperty("genomic.offheap.slabBytes", String.valueOf(1 << 20));
+        backwardShiftDeleteKeepsCollidingKeys();
+        System.out.println("OffHeapPatientTableTest OK");
+    }
+
+    private static void backwardShiftDeleteKeepsCollidingKeys() {
+        Random random = new Random(24);
+        List<Long> keys = new ArrayList<>();
+        keys.addAll(keysWithHome(CAPACITY - 2, 8));
+        keys.addAll(keysWithHome(CAPACITY - 1, 4));
+        keys.addAll(keysWithHome(0, 4));
+        keys.addAll(keysWithHome(500, 8));
+        keys.addAll(keysWithHome(501, 4));
+        Set<Long> all = new HashSet<>(keys);
+        while (all.size() < 600) {
+            long key = 1 + random.nextInt(100_000);
+            if (all.add(key)) {
+                keys.add(key);
+            }
+        }
+
+        OffHeapPatientTable table = new OffHeapPatientTable();
+        Map<String, String> expected = new HashMap<>();
+        for (long key : keys) {
+            Patient patient = patient(key, "v1");
+            table.put(patient);
+            expected.put(patient.getPatientId(), patient.getClinicalNotes());
+        }
+        checkAll(table, expected, all);
+
+        // Se borran en orden aleatorio; cada cierto tiempo se reinsertan algunas ya borradas
+        List<Long> order = new ArrayList<>(keys);
+        Collections.shuffle(order, random);
+        for (int i = 0; i < order.size(); i++) {
+            String patientId = id(order.get(i));
+            table.remove(patientId);
+            expected.remove(patientId);
+            if (i % 50 == 49) {
+                for (int j = i - 10; j < i; j += 3) {
+                    Patient patient = patient(order.get(j), "v2");
+                    table.put(patient);
+                    expected.put(patient.getPatientId(), patient.getClinicalNotes());
+                }
+            }
+            if (i < 40 || i % 25 == 0) {
+                checkAll(table, expected, all);
+            }
+        }
+        checkAll(table, expected, all);
+    }
+
+    private static void checkAll(OffHeapPatientTable table, Map<String, String> expected, Set<Long> keys) {
+        for (long key : keys) {
+            String patientId = id(key);
+            Patient patient = table.get(patientId);
+            String notes = expected.get(patientId);
+            check(notes == null ? patient == null : patient != null && notes.equals(patient.getClinicalNotes()),
+                  patientId + ": " + (patient == null ? null : patient.getClinicalNotes()) + ", esperado " + notes);
+        }
+        int[] scanned = {0};
+        table.scan(null, patient -> {
+            check(expected.containsKey(patient.getPatientId()), "recorrido devuelve un borrado: " + patient.getPatientId());
+            scanned[0]++;
+            return true;
+        });
+        check(scanned[0] == expected.size(), "recorrido con " + scanned[0] + " pacientes, esperados " + expected.size());
+    }
+
+    // Misma dispersión que el índice, que guarda la clave + 1
+    private static List<Long> keysWithHome(int home, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 1; keys.size() < count; key++) {
+            long hash = (key + 1) * 0x9E3779B97F4A7C15L;
+            if (((int) (hash ^ (hash >>> 32)) & (CAPACITY - 1)) == home) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static Patient patient(long key, String notes) {
+        return new Patient(id(key), "Paciente " + key, "DOC" + key, "p" + key + "@example.com", 30, "M", notes + "-" + key);
+    }
+
+    private static String id(long key) {
+        return String.format("P%06d", key);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
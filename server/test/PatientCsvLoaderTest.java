@@ -0,0 +1,119 @@
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Carga en paralelo: una nota entre comillas con un salto de línea o comillas dobladas
+ * justo en el corte entre tramos, o que ocupa tramos enteros, no debe partir la fila
+ * ni perder pacientes.
+ */
+public class PatientCsvLoaderTest {
+
+    public static void main(String[] args) throws Exception {
+        // Un hilo da cuatro tramos de 1 MiB o más; se lee al cargar la clase del cargador
+        System.setProperty("genomic.patients.loadThreads", "1");
+        Path directory = Files.createTempDirectory("csv-loader-test");
+        try {
+            for (int shift = -1; shift <= 1; shift++) {
+                quotedNewlineAtChunkBoundary(directory.resolve("patients" + shift + ".csv"), "\n", shift);
+                // En el CSV queda ""\n: el corte cae antes, entre y después de las comillas dobladas
+                quotedNewlineAtChunkBoundary(directory.resolve("escaped" + shift + ".csv"), "\"\n", shift);
+            }
+            quotedFieldSpanningChunks(directory.resolve("spanning.csv"));
+        } finally {
+            PatientLogTest.deleteRecursively(directory);
+        }
+        System.out.println("PatientCsvLoaderTest OK");
+    }
+
+    /**
+     * Filas de longitud fija cuya nota lleva {@code mark}; en la fila que contiene cada
+     * corte, la marca empieza en el byte del corte más {@code shift}.
+     */
+    private static void quotedNewlineAtChunkBoundary(Path file, String mark, int shift) throws Exception {
+        int rows = 20_000;
+        int notesLength = 200;
+        String header = CsvPatientStore.CSV_HEADER + "\n";
+        String template = row(0, notes(0, notesLength, 0, mark));
+        int rowLength = template.length() + 1;
+        int notesStart = template.indexOf('"') + 1;
+        long size = header.length() + (long) rows * rowLength;
+        int chunks = (int) Math.min(4, size / (1 << 20));
+        check(chunks == 4, "el archivo de prueba no da cuatro tramos: " + size + " bytes");
+
+        Map<Integer, Integer> newlineAt = new HashMap<>();
+        for (int i = 1; i < chunks; i++) {
+            long boundary = size * i / chunks + shift;
+            int row = (int) ((boundary - header.length()) / rowLength);
+            newlineAt.put(row, (int) (boundary - header.length() - (long) row * rowLength) - notesStart);
+        }
+        StringBuilder csv = new StringBuilder(header);
+        List<String> expectedNotes = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            int at = newlineAt.getOrDefault(row, 1 + row % (notesLength - mark.length() - 1));
+            check(at > 0 && at + mark.length() < notesLength, "el corte no cae dentro de la nota de la fila " + row);
+            String notes = notes(row, notesLength, at, mark);
+            String line = row(row, notes);
+            check(line.length() + 1 == rowLength, "fila de longitud distinta: " + row);
+            csv.append(line).append('\n');
+            expectedNotes.add(notes);
+        }
+        Files.write(file, csv.toString().getBytes(StandardCharsets.US_ASCII));
+        checkLoaded(file, expectedNotes, "marca " + mark.length() + ", desplazamiento " + shift);
+    }
+
+    /**
+     * Una nota de 3.5 MiB con saltos de línea y comillas entre filas cortas: los tramos
+     * segundo y tercero quedan enteros dentro de ella y no tienen ningún inicio de fila.
+     */
+    private static void quotedFieldSpanningChunks(Path file) throws Exception {
+        StringBuilder csv = new StringBuilder(CsvPatientStore.CSV_HEADER).append('\n');
+        List<String> expectedNotes = new ArrayList<>();
+        StringBuilder longNotes = new StringBuilder();
+        for (int i = 0; longNotes.length() < 3_500_000; i++) {
+            longNotes.append(i % 10 == 0 ? "dice \"sí\",\n" : "línea de nota\n");
+        }
+        for (int row = 0; row < 6000; row++) {
+            String notes = row == 3000 ? longNotes.toString() : notes(row, 40, 1 + row % 30, "\"\n");
+            csv.append(row(row, notes)).append('\n');
+            expectedNotes.add(notes);
+        }
+        byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+        check(bytes.length / (1 << 20) >= 4, "el archivo de prueba no da cuatro tramos: " + bytes.length + " bytes");
+        Files.write(file, bytes);
+        checkLoaded(file, expectedNotes, "nota de varios tramos");
+    }
+
+    private static void checkLoaded(Path file, List<String> expectedNotes, String name) throws Exception {
+        List<Patient> loaded = new ArrayList<>();
+        for (List<Patient> chunk : PatientCsvLoader.load(file)) {
+            loaded.addAll(chunk);
+        }
+        check(loaded.size() == expectedNotes.size(), "cargados " + loaded.size() + " pacientes de " + expectedNotes.size() +
+              " (" + name + ")");
+        for (int row = 0; row < expectedNotes.size(); row++) {
+            Patient patient = loaded.get(row);
+            check(patient.getPatientId().equals(String.format("P%06d", row + 1)) &&
+                  patient.getClinicalNotes().equals(expectedNotes.get(row)),
+                  "fila " + row + " mal cargada: " + patient.getPatientId() + " (" + name + ")");
+        }
+    }
+
+    private static String row(int row, String notes) {
+        return new Patient(String.format("P%06d", row + 1), "Paciente Prueba", String.format("D%08d", row), "p@example.com",
+                           "2024-01-01", 40, "F", notes, "", 0, "", false, 1).toCsvString();
+    }
+
+    private static String notes(int row, int notesLength, int at, String mark) {
+        char[] notes = new char[notesLength];
+        Arrays.fill(notes, (char) ('a' + row % 26));
+        mark.getChars(0, mark.length(), notes, at);
+        return new String(notes);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
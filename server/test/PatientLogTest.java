@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+/** Log de pacientes: un registro cortado o corrupto al final se descarta al reproducir y el archivo se recorta. */
+public class PatientLogTest {
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Files.createTempDirectory("patient-log-test");
+        try {
+            tornTailIsDiscarded(directory.resolve("torn"));
+            corruptTailIsDiscarded(directory.resolve("corrupt"));
+        } finally {
+            deleteRecursively(directory);
+        }
+        System.out.println("PatientLogTest OK");
+    }
+
+    // Cabecera que anuncia 200 bytes seguida de solo 10, como una escritura interrumpida
+    private static void tornTailIsDiscarded(Path directory) throws Exception {
+        Path file = writeLog(directory);
+        long valid = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.allocate(18).putInt(200).putInt(0x12345678).put("P00009,Mit".getBytes()).flip());
+        }
+        checkReplay(directory, file, valid);
+    }
+
+    private static void corruptTailIsDiscarded(Path directory) throws Exception {
+        Path file = writeLog(directory);
+        long valid = Files.size(file);
+        PatientLog log = new PatientLog(directory, "patients");
+        log.replay(line -> { }, id -> { });
+        log.append("P000004,Cuarto");
+        log.close();
+        // Se cambia el último byte del registro nuevo: el CRC ya no coincide
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 0x01)).rewind();
+            channel.write(last, channel.size() - 1);
+        }
+        checkReplay(directory, file, valid);
+    }
+
+    private static Path writeLog(Path directory) throws IOException {
+        PatientLog log = new PatientLog(directory, "patients");
+        log.replay(line -> { }, id -> { });
+        log.append("P000001,Primero");
+        log.append("P000002,\"Nota con, coma\"");
+        log.appendDelete("P000001");
+        log.append("P000003,Tercero");
+        log.close();
+        return directory.resolve("patients.000001.log");
+    }
+
+    private static void checkReplay(Path directory, Path file, long valid) throws IOException {
+        List<String> events = new ArrayList<>();
+        PatientLog log = new PatientLog(directory, "patients");
+        log.replay(line -> events.add("P " + line), id -> events.add("D " + id));
+        check(events.equals(List.of("P P000001,Primero", "P P000002,\"Nota con, coma\"", "D P000001", "P P000003,Tercero")),
+              "registros reproducidos: " + events);
+        check(Files.size(file) == valid, "el archivo no se recortó: " + Files.size(file) + " bytes, esperados " + valid);
+
+        // Lo que se añade después queda detrás de los registros válidos
+        log.append("P000005,Quinto");
+        log.close();
+        events.clear();
+        log = new PatientLog(directory, "patients");
+        log.replay(line -> events.add(line), id -> { });
+        log.close();
+        check(events.size() == 4 && events.get(3).equals("P000005,Quinto"), "registro añadido tras recortar: " + events);
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (var paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+#!/bin/sh
+# Compila el servidor con las pruebas y ejecuta cada clase *Test; sale con error si alguna falla.
+set -e
+cd "$(dirname "$0")/.."
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac --add-modules jdk.incubator.vector -nowarn -d "$out" *.java test/*.java
+for test in test/*Test.java; do
+    name=$(basename "$test" .java)
+    echo "== $name"
+    java --add-modules jdk.incubator.vector -ea -cp "$out" "$name"
+done